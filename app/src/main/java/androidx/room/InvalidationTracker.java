@@ -45,6 +45,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -62,8 +63,14 @@ import java.util.concurrent.locks.Lock;
 // memory table table, flipping the invalidated flag ON.
 // * When multi-instance invalidation is turned on, MultiInstanceInvalidationClient will be created.
 // It works as an Observer, and notifies other instances of table invalidation.
+// * Optionally one table can log the ids, accounts and folders of the rows changed into a second
+// memory table, so that observers with a scope can skip invalidations of unrelated rows.
 public class InvalidationTracker {
 
+    public static final int SCOPE_ROW = 1;
+    public static final int SCOPE_ACCOUNT = 2;
+    public static final int SCOPE_FOLDER = 3;
+
     private static final String[] TRIGGERS = new String[]{"UPDATE", "DELETE", "INSERT"};
 
     private static final String UPDATE_TABLE_NAME = "room_table_modification_log";
@@ -84,6 +91,19 @@ public class InvalidationTracker {
     static final String SELECT_UPDATED_TABLES_SQL = "SELECT * FROM " + UPDATE_TABLE_NAME
             + " WHERE " + INVALIDATED_COLUMN_NAME + " = 1;";
 
+    private static final String ROW_TABLE_NAME = "room_row_modification_log";
+
+    private static final int ROW_LOG_MAX = 500;
+
+    private static final String CREATE_ROW_TABLE_SQL = "CREATE TEMP TABLE IF NOT EXISTS "
+            + ROW_TABLE_NAME + "(row_id INTEGER, account INTEGER, folder INTEGER,"
+            + " PRIMARY KEY (row_id, account, folder))";
+
+    private static final String SELECT_ROWS_SQL = "SELECT row_id, account, folder FROM "
+            + ROW_TABLE_NAME + " LIMIT " + (ROW_LOG_MAX + 1);
+
+    private static final String RESET_ROWS_SQL = "DELETE FROM " + ROW_TABLE_NAME;
+
     @NonNull
     final HashMap<String, Integer> mTableIdLookup;
     final String[] mTableNames;
@@ -117,6 +137,12 @@ public class InvalidationTracker {
 
     private final Object mSyncTriggersLock = new Object();
 
+    // table id and id, account, folder column names of the table logging changed rows
+    private volatile int mRowTableId = -1;
+    private String[] mRowColumns;
+
+    private final AtomicLong mAvoidedRefreshes = new AtomicLong();
+
     /**
      * Used by the generated code.
      *
@@ -200,6 +226,7 @@ public class InvalidationTracker {
             database.execSQL("PRAGMA temp_store = MEMORY;");
             database.execSQL("PRAGMA recursive_triggers='ON';");
             database.execSQL(CREATE_TRACKING_TABLE_SQL);
+            database.execSQL(CREATE_ROW_TABLE_SQL);
             syncTriggers(database);
             mCleanupStatement = database.compileStatement(RESET_UPDATED_TABLES_SQL);
             mInitialized = true;
@@ -235,6 +262,29 @@ public class InvalidationTracker {
                 .append("`");
     }
 
+    private static void appendRowTriggerName(StringBuilder builder, String tableName,
+            String triggerType) {
+        builder.append("`")
+                .append("room_row_modification_trigger_")
+                .append(tableName)
+                .append("_")
+                .append(triggerType)
+                .append("`");
+    }
+
+    private static void appendRowValues(StringBuilder builder, String prefix, String[] columns) {
+        builder.append(" INSERT OR IGNORE INTO ")
+                .append(ROW_TABLE_NAME)
+                .append(" VALUES(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(prefix).append(".`").append(columns[i]).append("`");
+        }
+        builder.append(");");
+    }
+
     private void stopTrackingTable(SupportSQLiteDatabase writableDb, int tableId) {
         final String tableName = mTableNames[tableId];
         StringBuilder stringBuilder = new StringBuilder();
@@ -243,6 +293,35 @@ public class InvalidationTracker {
             stringBuilder.append("DROP TRIGGER IF EXISTS ");
             appendTriggerName(stringBuilder, tableName, trigger);
             writableDb.execSQL(stringBuilder.toString());
+
+            stringBuilder.setLength(0);
+            stringBuilder.append("DROP TRIGGER IF EXISTS ");
+            appendRowTriggerName(stringBuilder, tableName, trigger);
+            writableDb.execSQL(stringBuilder.toString());
+        }
+    }
+
+    private void startTrackingRows(SupportSQLiteDatabase writableDb, int tableId) {
+        final String tableName = mTableNames[tableId];
+        StringBuilder stringBuilder = new StringBuilder();
+        for (String trigger : TRIGGERS) {
+            stringBuilder.setLength(0);
+            stringBuilder.append("CREATE TEMP TRIGGER IF NOT EXISTS ");
+            appendRowTriggerName(stringBuilder, tableName, trigger);
+            stringBuilder.append(" AFTER ")
+                    .append(trigger)
+                    .append(" ON `")
+                    .append(tableName)
+                    .append("` BEGIN");
+            // Updates can move rows between accounts and folders, so log both sides
+            if (!"INSERT".equals(trigger)) {
+                appendRowValues(stringBuilder, "OLD", mRowColumns);
+            }
+            if (!"DELETE".equals(trigger)) {
+                appendRowValues(stringBuilder, "NEW", mRowColumns);
+            }
+            stringBuilder.append(" END");
+            writableDb.execSQL(stringBuilder.toString());
         }
     }
 
@@ -267,6 +346,58 @@ public class InvalidationTracker {
                     .append("; END");
             writableDb.execSQL(stringBuilder.toString());
         }
+        if (tableId == mRowTableId) {
+            startTrackingRows(writableDb, tableId);
+        }
+    }
+
+    /**
+     * Logs the id, account and folder of every changed row of the given table, so observers
+     * with a scope, see {@link Observer#setScope(int, long...)}, are notified of relevant
+     * changes only.
+     * <p>
+     * This should be called before the database is opened. Without logged rows, for example
+     * because the table was already tracked, all observers will be notified as usual.
+     *
+     * @param tableName     The table to log changed rows of.
+     * @param idColumn      The row id column.
+     * @param accountColumn The account column.
+     * @param folderColumn  The folder column.
+     */
+    public void setRowTracking(@NonNull String tableName, @NonNull String idColumn,
+            @NonNull String accountColumn, @NonNull String folderColumn) {
+        Integer tableId = mTableIdLookup.get(tableName.toLowerCase(Locale.US));
+        if (tableId == null) {
+            throw new IllegalArgumentException("There is no table with name " + tableName);
+        }
+        mRowColumns = new String[]{idColumn, accountColumn, folderColumn};
+        mRowTableId = tableId;
+    }
+
+    /**
+     * Returns the number of observer notifications skipped because the changed rows were out of
+     * the scope of the observer.
+     */
+    public long getAvoidedRefreshes() {
+        return mAvoidedRefreshes.get();
+    }
+
+    /**
+     * Limits refreshes of live data created by Room to changes of rows within a scope.
+     * Other live data is returned as-is.
+     *
+     * @param liveData The live data to scope.
+     * @param type     One of {@link #SCOPE_ROW}, {@link #SCOPE_ACCOUNT}, {@link #SCOPE_FOLDER}.
+     * @param values   The row ids, accounts or folders in scope.
+     * @return The same live data.
+     */
+    @NonNull
+    public static <T> LiveData<T> scope(@NonNull LiveData<T> liveData, int type,
+            long... values) {
+        if (liveData instanceof RoomTrackingLiveData) {
+            ((RoomTrackingLiveData<T>) liveData).mObserver.setScope(type, values);
+        }
+        return liveData;
     }
 
     /**
@@ -406,6 +537,7 @@ public class InvalidationTracker {
         public void run() {
             final Lock closeLock = mDatabase.getCloseLock();
             Set<Integer> invalidatedTableIds = null;
+            RowChanges rowChanges = null;
             closeLock.lock();
             try {
 
@@ -431,6 +563,7 @@ public class InvalidationTracker {
                 db.beginTransactionNonExclusive();
                 try {
                     invalidatedTableIds = checkUpdatedTable();
+                    rowChanges = checkUpdatedRows(invalidatedTableIds);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
@@ -447,12 +580,54 @@ public class InvalidationTracker {
                 }
             }
             if (invalidatedTableIds != null && !invalidatedTableIds.isEmpty()) {
+                int avoided = 0;
                 synchronized (mObserverMap) {
                     for (Map.Entry<Observer, ObserverWrapper> entry : mObserverMap) {
-                        entry.getValue().notifyByTableInvalidStatus(invalidatedTableIds);
+                        if (!entry.getValue().notifyByTableInvalidStatus(
+                                invalidatedTableIds, mRowTableId, rowChanges)) {
+                            avoided++;
+                        }
+                    }
+                }
+                if (avoided > 0) {
+                    long total = mAvoidedRefreshes.addAndGet(avoided);
+                    eu.faircode.email.Log.i("ROOM avoided=" + avoided + " total=" + total +
+                            " rows=" + rowChanges.mIds.size());
+                }
+            }
+        }
+
+        private RowChanges checkUpdatedRows(Set<Integer> invalidatedTableIds) {
+            if (!invalidatedTableIds.contains(mRowTableId)) {
+                return null;
+            }
+            RowChanges changes = new RowChanges();
+            Cursor cursor = mDatabase.query(new SimpleSQLiteQuery(SELECT_ROWS_SQL));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                int count = 0;
+                while (cursor.moveToNext()) {
+                    if (++count > ROW_LOG_MAX
+                            || cursor.isNull(0) || cursor.isNull(1) || cursor.isNull(2)) {
+                        changes = null;
+                        break;
                     }
+                    changes.mIds.add(cursor.getLong(0));
+                    changes.mAccounts.add(cursor.getLong(1));
+                    changes.mFolders.add(cursor.getLong(2));
                 }
+            } catch (Throwable ex) {
+                eu.faircode.email.Log.w(ex);
+                changes = null;
+            } finally {
+                cursor.close();
+            }
+            mDatabase.getOpenHelper().getWritableDatabase().execSQL(RESET_ROWS_SQL);
+            // Nothing logged means the row triggers were not installed
+            if (changes != null && changes.mIds.isEmpty()) {
+                changes = null;
             }
+            return changes;
         }
 
         private Set<Integer> checkUpdatedTable() {
@@ -669,13 +844,21 @@ public class InvalidationTracker {
          * based on the given invalid status set.
          *
          * @param invalidatedTablesIds The table ids of the tables that are invalidated.
+         * @param rowTableId           The table id of the table logging changed rows.
+         * @param rowChanges           The changed rows or null if unknown.
+         * @return false if the observer was not notified because of its scope.
          */
-        void notifyByTableInvalidStatus(Set<Integer> invalidatedTablesIds) {
+        boolean notifyByTableInvalidStatus(Set<Integer> invalidatedTablesIds,
+                int rowTableId, @Nullable RowChanges rowChanges) {
             Set<String> invalidatedTables = null;
+            boolean scoped = (rowChanges != null && mObserver.hasScope());
             final int size = mTableIds.length;
             for (int index = 0; index < size; index++) {
                 final int tableId = mTableIds[index];
                 if (invalidatedTablesIds.contains(tableId)) {
+                    if (tableId != rowTableId) {
+                        scoped = false;
+                    }
                     if (size == 1) {
                         // Optimization for a single-table observer
                         invalidatedTables = mSingleTableSet;
@@ -688,8 +871,12 @@ public class InvalidationTracker {
                 }
             }
             if (invalidatedTables != null) {
+                if (scoped && !mObserver.inScope(rowChanges)) {
+                    return false;
+                }
                 mObserver.onInvalidated(invalidatedTables);
             }
+            return true;
         }
 
         /**
@@ -734,6 +921,9 @@ public class InvalidationTracker {
     public abstract static class Observer {
         final String[] mTables;
 
+        volatile int mScopeType;
+        volatile long[] mScope;
+
         /**
          * Observes the given list of tables and views.
          *
@@ -765,11 +955,63 @@ public class InvalidationTracker {
          */
         public abstract void onInvalidated(@NonNull Set<String> tables);
 
+        /**
+         * Skips invalidations caused by changed rows outside the given scope only.
+         * This has no effect unless row tracking was enabled for one of the observed tables.
+         *
+         * @param type   One of {@link #SCOPE_ROW}, {@link #SCOPE_ACCOUNT}, {@link #SCOPE_FOLDER}.
+         * @param values The row ids, accounts or folders in scope.
+         */
+        public void setScope(int type, long... values) {
+            mScopeType = type;
+            mScope = (values == null ? null : Arrays.copyOf(values, values.length));
+        }
+
+        boolean hasScope() {
+            return (mScope != null);
+        }
+
+        boolean inScope(RowChanges changes) {
+            long[] scope = mScope;
+            if (scope == null) {
+                return true;
+            }
+            Set<Long> changed;
+            switch (mScopeType) {
+                case SCOPE_ROW:
+                    changed = changes.mIds;
+                    break;
+                case SCOPE_ACCOUNT:
+                    changed = changes.mAccounts;
+                    break;
+                case SCOPE_FOLDER:
+                    changed = changes.mFolders;
+                    break;
+                default:
+                    return true;
+            }
+            for (long value : scope) {
+                if (changed.contains(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         boolean isRemote() {
             return false;
         }
     }
 
+    /**
+     * The ids, accounts and folders of the rows changed since the last refresh.
+     */
+    static class RowChanges {
+        final Set<Long> mIds = new HashSet<>();
+        final Set<Long> mAccounts = new HashSet<>();
+        final Set<Long> mFolders = new HashSet<>();
+    }
+
     /**
      * Keeps a list of tables we should observe. Invalidation tracker lazily syncs this list w/
      * triggers in the database.
@@ -898,5 +1140,18 @@ public class InvalidationTracker {
                 observer.onInvalidated(tables);
             }
         }
+
+        // The scope is set on the delegate, for example the observer of a live data
+        @Override
+        boolean hasScope() {
+            final Observer observer = mDelegateRef.get();
+            return (observer != null && observer.hasScope());
+        }
+
+        @Override
+        boolean inScope(RowChanges changes) {
+            final Observer observer = mDelegateRef.get();
+            return (observer == null || observer.inScope(changes));
+        }
     }
 }
@@ -17,6 +17,7 @@
 package com.sun.mail.iap;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 
 /**
  * A simple wrapper around a byte array, with a start position and
@@ -111,6 +112,15 @@ public class ByteArray {
 	return new ByteArrayInputStream(bytes, start, count);
     }
 
+    /**
+     * Returns an InputStream for the data, which might not be in memory.
+     *
+     * @return	the InputStream
+     */
+    public InputStream toInputStream() {
+	return toByteArrayInputStream();
+    }
+
     /**
      * Grow the byte array by incr bytes.
      *
@@ -134,6 +134,7 @@ public class Protocol {
 	traceInput = new TraceInputStream(socket.getInputStream(), traceLogger);
 	traceInput.setQuote(quote);
 	input = new ResponseInputStream(traceInput);
+	initSpool();
 
 	traceOutput =
 	    new TraceOutputStream(socket.getOutputStream(), traceLogger);
@@ -141,6 +142,14 @@ public class Protocol {
 	output = new DataOutputStream(new BufferedOutputStream(traceOutput));
     }
 
+    private void initSpool() {
+	// Spool large literals, like message bodies, to disk
+	String spoolDir = props.getProperty(prefix + ".spool.dir");
+	if (spoolDir != null)
+	    input.setSpool(new File(spoolDir), PropUtil.getIntProperty(props,
+					prefix + ".spool.threshold", -1));
+    }
+
     /**
      * Compute the tag prefix to be used for this connection.
      * Start with "A" - "Z", then "AA" - "ZZ", and finally "AAA" - "ZZZ".
@@ -238,12 +247,23 @@ public class Protocol {
 	}
 
 	for (Response r : responses) {
-	    if (r != null) {
-		for (ResponseHandler rh : handlers) {
-		    if (rh != null) {
-			rh.handleResponse(r);
-		    }
-		}
+	    notifyResponseHandlers(r);
+	}
+    }
+
+    /**
+     * Notify response handlers of a single response
+     *
+     * @param	response	the response
+     */
+    public void notifyResponseHandlers(Response response) {
+	if (response == null) {
+	    return;
+	}
+
+	for (ResponseHandler rh : handlers) {
+	    if (rh != null) {
+		rh.handleResponse(response);
 	    }
 	}
     }
@@ -346,8 +366,53 @@ public class Protocol {
      * @return		array of Response objects returned by the server
      */
     public synchronized Response[] command(String command, Argument args) {
+	final List<Response> v = new ArrayList<>();
+	Response r = dispatch(command, args, new ResponseHandler() {
+	    @Override
+	    public void handleResponse(Response r) {
+		v.add(r);
+	    }
+	}, true);
+
+	// The final response is either the tagged completion response,
+	// which has already been collected, a BYE response or
+	// the response to a failed write, which must be last
+	if (v.isEmpty() || v.get(v.size() - 1) != r)
+	    v.add(r);
+	Response[] responses = new Response[v.size()];
+	v.toArray(responses);
+	return responses;
+    }
+
+    /**
+     * Send a command to the server and pass each untagged response
+     * to the given handler as soon as it has been read, instead of
+     * collecting all responses until the command completes.
+     * This keeps memory use constant for commands returning
+     * a large number of responses, like a FETCH of many messages. <p>
+     *
+     * The responses are not passed to the registered response handlers;
+     * the handler can call <code>notifyResponseHandlers</code> to do so.
+     * The returned response is the command completion response, or
+     * a BYE response, and should be passed to <code>handleResult</code>.
+     * If the handler throws a RuntimeException, the remaining responses
+     * are read and discarded before the exception is rethrown, to keep
+     * the connection in a usable state.
+     *
+     * @param	command	the command
+     * @param	args	the arguments
+     * @param	handler	the handler for untagged responses
+     * @return		the completion or BYE response
+     */
+    public synchronized Response command(String command, Argument args,
+				ResponseHandler handler) {
+	return dispatch(command, args, handler, false);
+    }
+
+    private Response dispatch(String command, Argument args,
+				ResponseHandler handler, boolean all) {
 	if (socket == null)
-		return new Response[]{Response.byeResponse(new SocketException("disconnected"))};
+		return Response.byeResponse(new SocketException("disconnected"));
 	if ("LOGOUT".equals(command))
 		try {
 			socket.setSoTimeout(10 * 1000);
@@ -356,7 +421,7 @@ public class Protocol {
 		}
 
 	commandStart(command);
-	List<Response> v = new ArrayList<>();
+	Response result = null;
 	boolean done = false;
 	String tag = null;
 
@@ -364,15 +429,16 @@ public class Protocol {
 	try {
 	    tag = writeCommand(command, args);
 	} catch (LiteralException lex) {
-	    v.add(lex.getResponse());
+	    result = lex.getResponse();
 	    done = true;
 	} catch (Exception ex) {
 	    // Convert this into a BYE response
-	    v.add(Response.byeResponse(ex));
+	    result = Response.byeResponse(ex);
 	    done = true;
 	}
 
 	Response byeResp = null;
+	RuntimeException failure = null;
 	while (!done) {
 	    Response r = null;
 	    try {
@@ -392,20 +458,29 @@ public class Protocol {
 		continue;
 	    }
 
-	    v.add(r);
-
 	    // If this is a matching command completion response, we are done
-	    if (r.isTagged() && r.getTag().equals(tag))
+	    boolean completed = (r.isTagged() && r.getTag().equals(tag));
+	    if (completed) {
+		result = r;
 		done = true;
+	    }
+
+	    if ((!completed || all) && failure == null)
+		try {
+		    handler.handleResponse(r);
+		} catch (RuntimeException ex) {
+		    // Drain the remaining responses
+		    failure = ex;
+		}
 	}
 
-	if (byeResp != null)
-		v.add(byeResp);	// must be last
-	Response[] responses = new Response[v.size()];
-	v.toArray(responses);
         timestamp = System.currentTimeMillis();
 	commandEnd();
-	return responses;
+
+	if (failure != null)
+	    throw failure;
+
+	return (byeResp == null ? result : byeResp);
     }
 
     /**
@@ -482,11 +557,22 @@ public class Protocol {
 	simpleCommand(cmd, null);
 
 	// need to create our own Inflater and Deflater in order to set nowrap
-	Inflater inf = new Inflater(true);
+	final Inflater inf = new Inflater(true);
 	traceInput = new TraceInputStream(new InflaterInputStream(
-			    socket.getInputStream(), inf), traceLogger);
+			    socket.getInputStream(), inf) {
+	    @Override
+	    public int available() throws IOException {
+		// InflaterInputStream reports 1 until the end of the stream,
+		// which would make hasResponse block in a read
+		// when selecting on the channel (IdleManager)
+		if (inf.needsInput())
+		    return in.available();
+		return 1;
+	    }
+	}, traceLogger);
 	traceInput.setQuote(quote);
 	input = new ResponseInputStream(traceInput);
+	initSpool();
 
 	// configure the Deflater
 	int level = PropUtil.getIntProperty(props, prefix + ".compress.level",
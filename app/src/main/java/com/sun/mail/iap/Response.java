@@ -40,6 +40,8 @@ public class Response {
     /** @since JavaMail 1.5.4 */
     protected Exception ex;
     protected boolean utf8;
+    // literals written to disk by the ResponseInputStream, if any
+    private List<SpooledByteArray> spooled = null;
 
     private static final int increment = 100;
 
@@ -106,7 +108,9 @@ public class Response {
     public Response(Protocol p) throws IOException, ProtocolException {
 	// read one response into 'buffer'
 	ByteArray ba = p.getResponseBuffer();
-	ByteArray response = p.getInputStream().readResponse(ba);
+	ResponseInputStream input = p.getInputStream();
+	ByteArray response = input.readResponse(ba);
+	spooled = input.getSpooled();
 	buffer = response.getBytes();
 	size = response.getCount() - 2; // Skip the terminating CRLF
 	utf8 = p.supportsUtf8();
@@ -128,6 +132,7 @@ public class Response {
 	tag = r.tag;
 	ex = r.ex;
 	utf8 = r.utf8;
+	spooled = r.spooled;
     }
 
     /**
@@ -478,6 +483,7 @@ public class Response {
 	    else
 		return new ByteArray(buffer, start, copyto-start);
 	} else if (b == '{') { // Literal
+	    SpooledByteArray sba = getSpooled(index);
 	    int start = ++index; // note the start position
 
 	    while (buffer[index] != '}')
@@ -494,7 +500,11 @@ public class Response {
 	    start = index + 3; // skip "}\r\n"
 	    index = start + count; // position index to beyond the literal
 
-	    if (returnString) // return as String
+	    if (sba != null) // the literal is on disk
+		return (returnString
+			? toString(sba.getBytes(), 0, sba.getCount())
+			: sba);
+	    else if (returnString) // return as String
 		return toString(buffer, start, start + count);
 	    else
 	    	return new ByteArray(buffer, start, count);
@@ -513,6 +523,14 @@ public class Response {
 	return null; // Error
     }
 
+    private SpooledByteArray getSpooled(int position) {
+	if (spooled != null)
+	    for (SpooledByteArray sba : spooled)
+		if (sba.getPosition() == position)
+		    return sba;
+	return null;
+    }
+
     private String toString(byte[] buffer, int start, int end) {
 	return utf8 ?
 		new String(buffer, start, end - start, StandardCharsets.UTF_8) :
@@ -17,6 +17,8 @@
 package com.sun.mail.iap;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import com.sun.mail.iap.ByteArray;
 import com.sun.mail.util.ASCIIUtility;
 
@@ -35,7 +37,17 @@ public class ResponseInputStream {
     private static final int incrementSlop = 16;
 
     // where we read from
-    private BufferedInputStream bin;
+    private final InputStream in;
+
+    // lines are scanned in bulk from this buffer
+    private final byte[] buf = new byte[8 * 1024];
+    private int bufpos = 0;
+    private int buflen = 0;
+
+    // literals larger than the threshold are written to this directory
+    private File spoolDir = null;
+    private int spoolThreshold = -1;
+    private List<SpooledByteArray> spooled = null;
 
     /**
      * Constructor.
@@ -43,7 +55,19 @@ public class ResponseInputStream {
      * @param	in	the InputStream to wrap
      */
     public ResponseInputStream(InputStream in) {
-	bin = new BufferedInputStream(in, 2 * 1024);
+	this.in = in;
+    }
+
+    /**
+     * Write literals larger than the threshold to a file
+     * in the given directory, instead of keeping them in memory.
+     *
+     * @param	dir	the directory for spool files, or null to disable
+     * @param	threshold	the literal size above which to spool
+     */
+    public void setSpool(File dir, int threshold) {
+	this.spoolDir = dir;
+	this.spoolThreshold = threshold;
     }
 
     /**
@@ -67,32 +91,43 @@ public class ResponseInputStream {
 	if (ba == null)
 	    ba = new ByteArray(new byte[128], 0, 128);
 
+	spooled = null;
+
 	byte[] buffer = ba.getBytes();
 	int idx = 0;
 	for (;;) {	// read until CRLF with no preceeding literal
-	    // XXX - b needs to be an int, to handle bytes with value 0xff
-	    int b = 0;
-	    boolean gotCRLF=false;
-
-	    // Read a CRLF terminated line from the InputStream
-	    while (!gotCRLF &&
-		   ((b =  bin.read()) != -1)) {
-		if (b == '\n') {
-		    if ((idx > 0) && buffer[idx-1] == '\r')
-			gotCRLF = true;
-		}
-		if (idx >= buffer.length) {
+	    boolean gotCRLF = false;
+
+	    // Read a CRLF terminated line from the InputStream,
+	    // scanning the read buffer for the line feed
+	    while (!gotCRLF) {
+		if (bufpos >= buflen && !fill())
+		    throw new IOException("Connection dropped by server?");
+
+		int end = bufpos;
+		while (end < buflen && buf[end] != '\n')
+		    end++;
+		boolean lf = (end < buflen);
+		if (lf)
+		    end++;
+
+		int n = end - bufpos;
+		if (idx + n > buffer.length) {
 		    int incr = buffer.length;
 		    if (incr > maxIncrement)
 			incr = maxIncrement;
+		    if (incr < idx + n - buffer.length)
+			incr = idx + n - buffer.length;
 		    ba.grow(incr);
 		    buffer = ba.getBytes();
 		}
-		buffer[idx++] = (byte)b;
-	    }
+		System.arraycopy(buf, bufpos, buffer, idx, n);
+		idx += n;
+		bufpos = end;
 
-	    if (b == -1)
-		throw new IOException("Connection dropped by server?");
+		if (lf && idx > 1 && buffer[idx-2] == '\r')
+		    gotCRLF = true;
+	    }
 
 	    // Now lets check for literals : {<digits>}CRLF
 	    // Note: index needs to >= 5 for the above sequence to occur
@@ -116,6 +151,21 @@ public class ResponseInputStream {
 		break;
 	    }
 
+	    // Large literals go to disk, leaving an empty literal in place
+	    if (spoolDir != null && spoolThreshold >= 0 &&
+		    count > spoolThreshold) {
+		if (spooled == null)
+		    spooled = new ArrayList<>();
+		spooled.add(spool(count, i));
+		idx = i;
+		buffer[idx++] = '{';
+		buffer[idx++] = '0';
+		buffer[idx++] = '}';
+		buffer[idx++] = '\r';
+		buffer[idx++] = '\n';
+		continue;
+	    }
+
 	    // Now read 'count' bytes. (Note: count could be 0)
 	    if (count > 0) {
 		int avail = buffer.length - idx; // available space in buffer
@@ -132,7 +182,7 @@ public class ResponseInputStream {
 		 */
 		int actual;
 		while (count > 0) {
-		    actual = bin.read(buffer, idx, count);
+		    actual = read(buffer, idx, count);
 		    if (actual == -1)
 			throw new IOException("Connection dropped by server?");
 		    count -= actual;
@@ -145,6 +195,54 @@ public class ResponseInputStream {
 	return ba;
     }
 
+    /**
+     * Return the literals of the last response that were written to disk,
+     * in the order of their position in the response.
+     *
+     * @return	the spooled literals, or null if none
+     */
+    List<SpooledByteArray> getSpooled() {
+	return spooled;
+    }
+
+    private SpooledByteArray spool(int count, int position)
+				throws IOException {
+	File file = File.createTempFile("literal", ".tmp", spoolDir);
+	try (OutputStream os = new FileOutputStream(file)) {
+	    byte[] data = new byte[Math.min(count, 64 * 1024)];
+	    int left = count;
+	    while (left > 0) {
+		int actual = read(data, 0, Math.min(left, data.length));
+		if (actual == -1)
+		    throw new IOException("Connection dropped by server?");
+		os.write(data, 0, actual);
+		left -= actual;
+	    }
+	} catch (IOException ex) {
+	    file.delete();
+	    throw ex;
+	}
+	return new SpooledByteArray(file, count, position);
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+	// Drain the read buffer first, then read directly
+	if (bufpos < buflen) {
+	    int n = Math.min(len, buflen - bufpos);
+	    System.arraycopy(buf, bufpos, b, off, n);
+	    bufpos += n;
+	    return n;
+	}
+	return in.read(b, off, len);
+    }
+
+    private boolean fill() throws IOException {
+	int n = in.read(buf, 0, buf.length);
+	bufpos = 0;
+	buflen = (n < 0 ? 0 : n);
+	return (n > 0);
+    }
+
     /**
      * How much buffered data do we have?
      *
@@ -153,6 +251,6 @@ public class ResponseInputStream {
      * @since	JavaMail 1.5.4
      */
     public int available() throws IOException {
-	return bin.available();
+	return (buflen - bufpos) + in.available();
     }
 }
@@ -0,0 +1,172 @@
+package com.sun.mail.iap;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A literal that was written to a file by the ResponseInputStream,
+ * because it was too large to keep in memory. <p>
+ *
+ * The data is preferably read with <code>toInputStream</code>,
+ * which can be called more than once.
+ * The other methods load the data into memory on first use. <p>
+ *
+ * The file is kept as long as this object, and thereby the Response
+ * it belongs to, is referenced. It is deleted when this object is
+ * garbage collected.
+ */
+
+public class SpooledByteArray extends ByteArray {
+    // Files of literals which are still referenced
+    private static final Set<String> inuse = new HashSet<>();
+
+    private final File file;
+    private final int size;
+    private final int position;	// of the literal in the response
+    private byte[] data = null;
+
+    SpooledByteArray(File file, int size, int position) {
+	super(null, 0, 0);
+	this.file = file;
+	this.size = size;
+	this.position = position;
+	synchronized (inuse) {
+	    inuse.add(file.getAbsolutePath());
+	}
+    }
+
+    /**
+     * Check if a spool file still belongs to a referenced literal.
+     *
+     * @param	file	the spool file
+     * @return		true if the file should not be deleted
+     */
+    public static boolean isInUse(File file) {
+	synchronized (inuse) {
+	    return inuse.contains(file.getAbsolutePath());
+	}
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+	try {
+	    file.delete();
+	    synchronized (inuse) {
+		inuse.remove(file.getAbsolutePath());
+	    }
+	} finally {
+	    super.finalize();
+	}
+    }
+
+    int getPosition() {
+	return position;
+    }
+
+    @Override
+    public synchronized byte[] getBytes() {
+	if (data == null) {
+	    data = new byte[size];
+	    try (InputStream is = new FileInputStream(file)) {
+		int off = 0;
+		while (off < size) {
+		    int n = is.read(data, off, size - off);
+		    if (n < 0)
+			throw new EOFException(file.getName());
+		    off += n;
+		}
+	    } catch (IOException ex) {
+		data = null;
+		throw new IllegalStateException("Spooled literal unavailable", ex);
+	    }
+	}
+	return data;
+    }
+
+    @Override
+    public int getStart() {
+	return 0;
+    }
+
+    @Override
+    public int getCount() {
+	return size;
+    }
+
+    @Override
+    public byte[] getNewBytes() {
+	return getBytes().clone();
+    }
+
+    @Override
+    public ByteArrayInputStream toByteArrayInputStream() {
+	return new ByteArrayInputStream(getBytes(), 0, size);
+    }
+
+    @Override
+    public synchronized InputStream toInputStream() {
+	if (data != null)
+	    return new ByteArrayInputStream(data, 0, size);
+
+	try {
+	    return new FilterInputStream(new FileInputStream(file)) {
+		private boolean closed = false;
+
+		@Override
+		public int read() throws IOException {
+		    if (closed)
+			return -1;
+		    int b = super.read();
+		    if (b < 0)
+			close();
+		    return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+		    if (closed)
+			return -1;
+		    int n = super.read(b, off, len);
+		    if (n < 0)
+			close();
+		    return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+		    if (!closed) {
+			closed = true;
+			super.close();
+		    }
+		}
+	    };
+	} catch (FileNotFoundException ex) {
+	    throw new IllegalStateException("Spooled literal unavailable", ex);
+	}
+    }
+
+    @Override
+    public void grow(int incr) {
+	throw new UnsupportedOperationException();
+    }
+}
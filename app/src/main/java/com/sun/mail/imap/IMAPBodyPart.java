@@ -187,7 +187,7 @@ public class IMAPBodyPart extends MimeBodyPart implements ReadableMime {
 		else
 		    b = p.fetchBody(seqnum, sectionId);
 		if (b != null)
-		    is = b.getByteArrayInputStream();
+		    is = b.getInputStream();
 	    } catch (ConnectionException cex) {
 		throw new FolderClosedException(
 			message.getFolder(), cex.getMessage());
@@ -774,11 +774,11 @@ public class IMAPMessage extends MimeMessage implements ReadableMime {
 		    else
 			b = p.fetchBody(getSequenceNumber(), toSection("TEXT"));
 		    if (b != null)
-			is = b.getByteArrayInputStream();
+			is = b.getInputStream();
 		} else {
 		    RFC822DATA rd = p.fetchRFC822(getSequenceNumber(), "TEXT");
 		    if (rd != null)
-			is = rd.getByteArrayInputStream();
+			is = rd.getInputStream();
 		}
 	    } catch (ConnectionException cex) {
 		throw new FolderClosedException(folder, cex.getMessage());
@@ -877,11 +877,11 @@ public class IMAPMessage extends MimeMessage implements ReadableMime {
 		    else
 			b = p.fetchBody(getSequenceNumber(), sectionId);
 		    if (b != null)
-			is = b.getByteArrayInputStream();
+			is = b.getInputStream();
 		} else {
 		    RFC822DATA rd = p.fetchRFC822(getSequenceNumber(), null);
 		    if (rd != null)
-			is = rd.getByteArrayInputStream();
+			is = rd.getInputStream();
 		}
 	    } catch (ConnectionException cex) {
 		throw new FolderClosedException(folder, cex.getMessage());
@@ -1339,11 +1339,11 @@ public class IMAPMessage extends MimeMessage implements ReadableMime {
 	    boolean isHeader;
 	    if (item instanceof RFC822DATA) { // IMAP4
 		headerStream = 
-		    ((RFC822DATA)item).getByteArrayInputStream();
+		    ((RFC822DATA)item).getInputStream();
 		isHeader = ((RFC822DATA)item).isHeader();
 	    } else {	// IMAP4rev1
 		headerStream = 
-		    ((BODY)item).getByteArrayInputStream();
+		    ((BODY)item).getInputStream();
 		isHeader = ((BODY)item).isHeader();
 	    }
 
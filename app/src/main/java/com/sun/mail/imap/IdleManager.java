@@ -23,6 +23,7 @@ import java.nio.*;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.logging.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 
@@ -118,6 +119,36 @@ public class IdleManager {
     private volatile boolean running;
     private Queue<IMAPFolder> toWatch = new ConcurrentLinkedQueue<>();
     private Queue<IMAPFolder> toAbort = new ConcurrentLinkedQueue<>();
+    private Map<IMAPFolder, Callback> callbacks = new ConcurrentHashMap<>();
+
+    /**
+     * Callback for folders that are watched until unwatched,
+     * instead of only until the next event.
+     */
+    public interface Callback {
+	/**
+	 * Should the folder still be watched?
+	 *
+	 * @param	folder	the folder
+	 * @return	true to continue watching
+	 */
+	boolean isActive(Folder folder);
+
+	/**
+	 * Responses from the server were processed.
+	 *
+	 * @param	folder	the folder
+	 */
+	void onActivity(Folder folder);
+
+	/**
+	 * Watching the folder failed, the folder is no longer watched.
+	 *
+	 * @param	folder	the folder
+	 * @param	ex	the reason
+	 */
+	void onError(Folder folder, Throwable ex);
+    }
 
     /**
      * Create an IdleManager.  The Session is used only to configure
@@ -162,6 +193,15 @@ public class IdleManager {
 	return running;
     }
 
+    /**
+     * Has the IdleManager been stopped, or did it terminate abnormally?
+     *
+     * @return	true if the IdleManager can't watch folders anymore
+     */
+    public boolean isStopped() {
+	return die;
+    }
+
     /**
      * Watch the Folder for new messages and other events using the IMAP IDLE
      * command.
@@ -214,6 +254,80 @@ public class IdleManager {
 	}
     }
 
+    /**
+     * Watch the Folder until it is unwatched or the callback
+     * reports it is no longer active. The IDLE command is restarted
+     * each time it ended, for example because another thread
+     * needed the connection to execute a command.
+     * This allows watching many folders with a few threads only.
+     *
+     * @param	folder	the folder to watch
+     * @param	callback	the callback
+     * @exception	MessagingException	for errors related to the folder
+     */
+    public void watch(Folder folder, Callback callback)
+				throws MessagingException {
+	callbacks.put((IMAPFolder)folder, callback);
+	try {
+	    watch(folder);
+	} catch (MessagingException | RuntimeException ex) {
+	    callbacks.remove(folder);
+	    throw ex;
+	}
+    }
+
+    /**
+     * Stop restarting the IDLE command for the folder.
+     *
+     * @param	folder	the folder
+     */
+    public void unwatch(Folder folder) {
+	callbacks.remove(folder);
+    }
+
+    /**
+     * Can the folder be watched?  This requires a SocketChannel.
+     *
+     * @param	folder	the folder
+     * @return	true if the folder can be watched
+     */
+    public static boolean canWatch(Folder folder) {
+	return (folder instanceof IMAPFolder &&
+		((IMAPFolder)folder).getChannel() != null);
+    }
+
+    /**
+     * Restart the IDLE command for a folder with a callback.
+     * This is done in a separate thread, because it blocks
+     * until other threads are done using the connection.
+     */
+    private void rewatch(final IMAPFolder folder) {
+	final Callback callback = callbacks.get(folder);
+	if (callback == null || die)
+	    return;
+	es.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    if (callbacks.get(folder) != callback)
+			return;
+		    if (callback.isActive(folder))
+			watch(folder);
+		    else
+			callbacks.remove(folder);
+		} catch (Throwable ex) {
+		    failed(folder, ex);
+		}
+	    }
+	});
+    }
+
+    private void failed(IMAPFolder folder, Throwable ex) {
+	Callback callback = callbacks.remove(folder);
+	if (callback != null && callback.isActive(folder))
+	    callback.onError(folder, ex);
+    }
+
     /**
      * Request that the specified folder abort an IDLE command.
      * We can't do the abort directly because the DONE message needs
@@ -280,6 +394,9 @@ public class IdleManager {
 		// nothing to do...
 		logger.log(Level.FINEST, "IdleManager unwatch exception", ex2);
 	    }
+	    // folders with a callback aren't watched anymore
+	    for (IMAPFolder folder : callbacks.keySet())
+		failed(folder, new MessagingException("IdleManager stopped"));
 	    logger.fine("IdleManager exiting");
 	}
     }
@@ -350,7 +467,11 @@ public class IdleManager {
 	    // switch back to blocking to allow normal I/O
 	    sc.configureBlocking(true);
 	    try {
-		if (folder.handleIdle(false)) {
+		boolean more = folder.handleIdle(false);
+		Callback callback = callbacks.get(folder);
+		if (callback != null)
+		    callback.onActivity(folder);
+		if (more) {
 		    if (logger.isLoggable(Level.FINEST))
 			logger.log(Level.FINEST,
 			    "IdleManager continue watching folder {0}",
@@ -363,12 +484,14 @@ public class IdleManager {
 			logger.log(Level.FINEST,
 			    "IdleManager done watching folder {0}",
 							folderName(folder));
+		    rewatch(folder);
 		}
-	    } catch (MessagingException ex) {
+	    } catch (MessagingException | RuntimeException ex) {
 		// something went wrong, stop watching this folder
 		logger.log(Level.FINEST,
 		    "IdleManager got exception for folder: " +
 						    folderName(folder), ex);
+		failed(folder, ex);
 	    }
 	}
 
@@ -401,6 +524,7 @@ public class IdleManager {
 		    public void run() {
 			// send the DONE and wait for the response
 			folder0.idleAbortWait();
+			rewatch(folder0);
 		    }
 		});
 	    } else {
@@ -2005,10 +2005,10 @@ public class IMAPProtocol extends Protocol {
      * @since	JavaMail 1.5.3
      */
     public void fetchSequenceNumber(long uid) throws ProtocolException {
-	Response[] r = fetch(String.valueOf(uid), "UID", true);	
+	Response r = fetch(String.valueOf(uid), "UID", true, notifier);
 
 	notifyResponseHandlers(r);
-	handleResult(r[r.length-1]);
+	handleResult(r);
     }
 
     /**
@@ -2027,29 +2027,26 @@ public class IMAPProtocol extends Protocol {
      */
     public long[] fetchSequenceNumbers(long start, long end)
 			throws ProtocolException {
-	Response[] r = fetch(String.valueOf(start) + ":" + 
+	final LongArray v = new LongArray();
+	Response r = fetch(String.valueOf(start) + ":" + 
 				(end == UIDFolder.LASTUID ? "*" : 
 				String.valueOf(end)),
-			     "UID", true);	
+			     "UID", true, new ResponseHandler() {
+	    @Override
+	    public void handleResponse(Response r) {
+		if (r instanceof FetchResponse) {
+		    UID u = ((FetchResponse)r).getItem(UID.class);
+		    if (u != null)
+			v.add(u.uid);
+		}
+		notifyResponseHandlers(r);
+	    }
+	});
 
-	UID u;
-	List<UID> v = new ArrayList<>();
-	for (int i = 0, len = r.length; i < len; i++) {
-	    if (r[i] == null || !(r[i] instanceof FetchResponse))
-		continue;
-	    
-	    FetchResponse fr = (FetchResponse)r[i];
-	    if ((u = fr.getItem(UID.class)) != null)
-		v.add(u);
-	}
-		
 	notifyResponseHandlers(r);
-	handleResult(r[r.length-1]);
+	handleResult(r);
 
-	long[] lv = new long[v.size()];
-	for (int i = 0; i < v.size(); i++)
-	    lv[i] = v.get(i).uid;
-	return lv;
+	return v.toArray();
     }
  
     /**
@@ -2071,10 +2068,10 @@ public class IMAPProtocol extends Protocol {
 	    sb.append(String.valueOf(uids[i]));
 	}
 
-	Response[] r = fetch(sb.toString(), "UID", true);	
+	Response r = fetch(sb.toString(), "UID", true, notifier);
 
 	notifyResponseHandlers(r);
-	handleResult(r[r.length-1]);
+	handleResult(r);
     }
 
     /**
@@ -2095,20 +2092,20 @@ public class IMAPProtocol extends Protocol {
 	String msgSequence = String.valueOf(start) + ":" + 
 				(end == UIDFolder.LASTUID ? "*" : 
 				String.valueOf(end));
-	Response[] r = command("UID FETCH " + msgSequence +
-		" (FLAGS) (CHANGEDSINCE " + String.valueOf(modseq) + ")", null);
+	final List<Integer> v = new ArrayList<>();
+	Response r = command("UID FETCH " + msgSequence +
+		" (FLAGS) (CHANGEDSINCE " + String.valueOf(modseq) + ")", null,
+		new ResponseHandler() {
+	    @Override
+	    public void handleResponse(Response r) {
+		if (r instanceof FetchResponse)
+		    v.add(Integer.valueOf(((FetchResponse)r).getNumber()));
+		notifyResponseHandlers(r);
+	    }
+	});
 
-	List<Integer> v = new ArrayList<>();
-	for (int i = 0, len = r.length; i < len; i++) {
-	    if (r[i] == null || !(r[i] instanceof FetchResponse))
-		continue;
- 
-	    FetchResponse fr = (FetchResponse)r[i];
-	    v.add(Integer.valueOf(fr.getNumber()));
-	}
-		
 	notifyResponseHandlers(r);
-	handleResult(r[r.length-1]);
+	handleResult(r);
 
 	// Copy the list into 'matches'
 	int vsize = v.size();
@@ -2142,6 +2139,48 @@ public class IMAPProtocol extends Protocol {
 	    return command("FETCH " + msgSequence + " (" + what + ")", null);
     }
 
+    /**
+     * Like fetch, but each FETCH response is passed to the handler
+     * as soon as it has been read.
+     */
+    private Response fetch(String msgSequence, String what, boolean uid,
+				ResponseHandler handler) {
+	if (uid)
+	    return command("UID FETCH " + msgSequence +" (" + what + ")", null,
+			handler);
+	else
+	    return command("FETCH " + msgSequence + " (" + what + ")", null,
+			handler);
+    }
+
+    /**
+     * Dispatches streamed responses to the registered response handlers.
+     */
+    private final ResponseHandler notifier = new ResponseHandler() {
+	@Override
+	public void handleResponse(Response r) {
+	    notifyResponseHandlers(r);
+	}
+    };
+
+    /**
+     * Growable array of UIDs, to avoid boxing every UID.
+     */
+    private static class LongArray {
+	private long[] values = new long[16];
+	private int size = 0;
+
+	void add(long value) {
+	    if (size == values.length)
+		values = Arrays.copyOf(values, size * 2);
+	    values[size++] = value;
+	}
+
+	long[] toArray() {
+	    return Arrays.copyOf(values, size);
+	}
+    }
+
     /**
      * COPY command.
      *
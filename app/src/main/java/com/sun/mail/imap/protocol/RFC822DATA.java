@@ -17,6 +17,7 @@
 package com.sun.mail.imap.protocol;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import com.sun.mail.iap.*; 
 import com.sun.mail.util.ASCIIUtility;
 
@@ -70,6 +71,19 @@ public class RFC822DATA implements Item {
 	    return null;
     }
 
+    /**
+     * Returns the data as a stream, which might be read from disk
+     * if the data was spooled. Each call returns a new stream,
+     * positioned at the start of the data. A spooled file stays
+     * available while this item is referenced.
+     */
+    public InputStream getInputStream() {
+	if (data != null)
+	    return data.toInputStream();
+	else
+	    return null;
+    }
+
     public boolean isHeader() {
 	return isHeader;
     }
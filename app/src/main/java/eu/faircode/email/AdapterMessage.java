@@ -8351,6 +8351,10 @@ public class AdapterMessage extends RecyclerView.Adapter<AdapterMessage.ViewHold
 
         Pair<String, String> p = MessageHelper.getExtra(email, extra);
 
+        // Decoded addresses are shared
+        if (p.first != null || p.second != null)
+            addresses[0] = (Address) ((InternetAddress) addresses[0]).clone();
+
         if (p.first != null)
             try {
                 ((InternetAddress) addresses[0]).setPersonal(p.first);
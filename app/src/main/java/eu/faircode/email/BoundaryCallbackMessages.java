@@ -104,6 +104,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
     private static ExecutorService executor = Helper.getBackgroundExecutor(1, "boundary");
 
     private static final int SEARCH_LIMIT_DEVICE = 1000;
+    private static final int SEARCH_FTS_CHUNK = 100;
 
     interface IBoundaryCallbackMessages {
         void onLoading();
@@ -289,35 +290,52 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         }
 
         if (criteria.fts && word.size() > 0 && !criteria.in_headers && !criteria.in_html) {
+            boolean fts5 = Fts5DbHelper.isEnabled(context);
+            // FTS5 matches the selected fields as a phrase, making a text re-match redundant
+            boolean indexed = (fts5 && Fts5DbHelper.isPhrase(criteria));
+
             if (state.ids == null) {
-                SQLiteDatabase sdb = Fts4DbHelper.getInstance(context);
-                state.ids = Fts4DbHelper.match(sdb, account, folder, exclude, criteria, TextUtils.join(" ", word));
+                if (fts5) {
+                    // Native tokenization, ordered by relevance
+                    SQLiteDatabase sdb = Fts5DbHelper.getInstance(context);
+                    state.ids = Fts5DbHelper.match(sdb, account, folder, exclude, criteria);
+                } else {
+                    SQLiteDatabase sdb = Fts4DbHelper.getInstance(context);
+                    state.ids = Fts4DbHelper.match(sdb, account, folder, exclude, criteria, TextUtils.join(" ", word));
+                }
                 EntityLog.log(context, "Boundary FTS" +
+                        " fts5=" + fts5 +
                         " account=" + account +
                         " folder=" + folder +
                         " criteria=" + criteria +
                         " ids=" + state.ids.size());
             }
 
-            List<Long> excluded = Helper.fromLongArray(exclude);
-
             try {
                 db.beginTransaction();
 
-                for (; state.index < state.ids.size() && found < pageSize && !state.destroyed; state.index++) {
-                    long id = state.ids.get(state.index);
-                    EntityMessage message = db.message().getMessage(id);
-                    if (message == null || message.ui_hide)
-                        continue;
+                while (state.index < state.ids.size() && found < pageSize && !state.destroyed) {
+                    // Fetch candidates in bulk, hidden and excluded messages are filtered out in SQL
+                    int from = state.index;
+                    int to = Math.min(from + SEARCH_FTS_CHUNK, state.ids.size());
+                    List<Long> chunk = state.ids.subList(from, to);
 
-                    if (excluded.contains(message.folder))
-                        continue;
+                    Map<Long, EntityMessage> messages = new HashMap<>();
+                    for (EntityMessage message : db.message().getMessages(chunk, exclude))
+                        messages.put(message.id, message);
 
-                    if (!matchMessage(context, message, criteria, false))
-                        continue;
+                    // Keep the order of the index
+                    for (; state.index < to && found < pageSize && !state.destroyed; state.index++) {
+                        EntityMessage message = messages.get(state.ids.get(state.index));
+                        if (message == null)
+                            continue;
 
-                    found += db.message().setMessageFound(message.id, true);
-                    Log.i("Boundary matched=" + message.id + " found=" + found);
+                        if (!matchMessage(context, message, criteria, false, indexed))
+                            continue;
+
+                        found += db.message().setMessageFound(message.id, true);
+                        Log.i("Boundary matched=" + message.id + " found=" + found);
+                    }
                 }
                 db.setTransactionSuccessful();
 
@@ -377,7 +395,7 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
                 if (!matched) {
                     EntityMessage message = db.message().getMessage(match.id);
                     if (message != null && !message.ui_hide)
-                        matched = matchMessage(context, message, criteria, true);
+                        matched = matchMessage(context, message, criteria, true, false);
                 }
 
                 if (matched) {
@@ -751,7 +769,9 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         return imessages;
     }
 
-    private static boolean matchMessage(Context context, EntityMessage message, SearchCriteria criteria, boolean partial) {
+    private static boolean matchMessage(Context context, EntityMessage message, SearchCriteria criteria, boolean partial, boolean indexed) {
+        QueryMatcher matcher = (criteria.query == null ? null : criteria.getMatcher(partial));
+
         if (criteria.with_unseen) {
             if (message.ui_seen)
                 return false;
@@ -803,31 +823,31 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         }
 
         if (criteria.in_senders) {
-            if (contains(message.from, criteria.query, partial))
+            if (contains(message.from, matcher))
                 return true;
         }
 
         if (criteria.in_recipients) {
-            if (contains(message.to, criteria.query, partial) ||
-                    contains(message.cc, criteria.query, partial) ||
-                    contains(message.bcc, criteria.query, partial))
+            if (contains(message.to, matcher) ||
+                    contains(message.cc, matcher) ||
+                    contains(message.bcc, matcher))
                 return true;
         }
 
         if (criteria.in_subject) {
-            if (contains(message.subject, criteria.query, partial, false))
+            if (matcher.matches(message.subject, false))
                 return true;
         }
 
         if (criteria.in_keywords) {
             if (message.keywords != null)
                 for (String keyword : message.keywords)
-                    if (contains(keyword, criteria.query, partial, false))
+                    if (matcher.matches(keyword, false))
                         return true;
         }
 
         if (criteria.in_notes) {
-            if (contains(message.notes, criteria.query, partial, false))
+            if (matcher.matches(message.notes, false))
                 return true;
         }
 
@@ -836,6 +856,9 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
                 return true;
         }
 
+        if (criteria.in_message && indexed && !criteria.in_html && criteria.getJsoup() == null)
+            return true;
+
         if (criteria.in_html || criteria.in_message)
             try {
                 File file = EntityMessage.getFile(context, message.id);
@@ -854,9 +877,9 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
 
                     if (criteria.in_message) {
                         // This won't match <p>An <b>example</b><p> when searching for "An example"
-                        if (contains(html, criteria.query, partial, true)) {
+                        if (matcher.matches(html, true)) {
                             String text = HtmlHelper.getFullText(html);
-                            if (contains(text, criteria.query, partial, false))
+                            if (matcher.matches(text, false))
                                 return true;
                         }
                     }
@@ -868,46 +891,74 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         return false;
     }
 
-    private static boolean contains(Address[] addresses, String query, boolean partial) {
+    private static boolean contains(Address[] addresses, QueryMatcher matcher) {
         if (addresses == null)
             return false;
         for (Address address : addresses)
-            if (contains(address.toString(), query, partial, false))
+            if (matcher.matches(address.toString(), false))
                 return true;
         return false;
     }
 
-    private static boolean contains(String text, String query, boolean partial, boolean html) {
-        if (TextUtils.isEmpty(text))
-            return false;
+    static class QueryMatcher {
+        private final List<String> plus = new ArrayList<>();
+        private final List<String> minus = new ArrayList<>();
+        private final String word;
+        private final Pattern pattern;
+
+        // Query terms are normalized and the word pattern compiled once per search
+        QueryMatcher(String query, boolean partial) {
+            List<String> words = new ArrayList<>();
+            for (String w : query.trim().split("\\s+"))
+                if (w.length() > 1 && w.startsWith("+"))
+                    plus.add(Fts4DbHelper.preprocessText(w.substring(1)));
+                else if (w.length() > 1 && w.startsWith("-"))
+                    minus.add(Fts4DbHelper.preprocessText(w.substring(1)));
+                else
+                    words.addAll(Arrays.asList(Fts4DbHelper.breakText(w).split("\\s+")));
+
+            if (words.size() == 0) {
+                this.word = null;
+                this.pattern = null;
+            } else if (partial && words.size() == 1) {
+                // Plain substring search
+                this.word = words.get(0);
+                this.pattern = null;
+            } else {
+                StringBuilder sb = new StringBuilder();
+                sb.append(partial ? "(" : "\\b(");
+                for (int i = 0; i < words.size(); i++) {
+                    if (i > 0)
+                        sb.append("\\s+");
+                    sb.append(Pattern.quote(words.get(i)));
+                }
+                sb.append(partial ? ")" : ")\\b");
+                this.word = null;
+                this.pattern = Pattern.compile(sb.toString(), Pattern.DOTALL);
+            }
+        }
+
+        boolean matches(String text, boolean html) {
+            if (TextUtils.isEmpty(text))
+                return false;
 
-        text = Fts4DbHelper.breakText(text);
+            text = Fts4DbHelper.breakText(text);
 
-        List<String> word = new ArrayList<>();
-        for (String w : query.trim().split("\\s+"))
-            if (w.length() > 1 && w.startsWith("+")) {
-                if (!text.contains(Fts4DbHelper.preprocessText(w.substring(1))))
-                    return false;
-            } else if (w.length() > 1 && w.startsWith("-")) {
-                if (!html && text.contains(Fts4DbHelper.preprocessText(w.substring(1))))
+            for (String p : plus)
+                if (!text.contains(p))
                     return false;
-            } else
-                word.addAll(Arrays.asList(Fts4DbHelper.breakText(w).split("\\s+")));
 
-        if (word.size() == 0)
-            return true;
+            if (!html)
+                for (String m : minus)
+                    if (text.contains(m))
+                        return false;
 
-        StringBuilder sb = new StringBuilder();
-        sb.append(partial ? ".*(" : ".*?\\b(");
-        for (int i = 0; i < word.size(); i++) {
-            if (i > 0)
-                sb.append("\\s+");
-            sb.append(Pattern.quote(word.get(i)));
+            if (word != null)
+                return text.contains(word);
+            if (pattern != null)
+                return pattern.matcher(text).find();
+            return true;
         }
-        sb.append(partial ? ").*" : ")\\b.*?");
-
-        Pattern pat = Pattern.compile(sb.toString(), Pattern.DOTALL);
-        return pat.matcher(text).matches();
     }
 
     State getState() {
@@ -1009,6 +1060,20 @@ public class BoundaryCallbackMessages extends PagedList.BoundaryCallback<TupleMe
         private static final String KEYWORD = "keyword:";
         private static final String JSOUP_PREFIX = "jsoup:";
 
+        private transient String matcherQuery = null;
+        private transient QueryMatcher[] matchers = null;
+
+        synchronized QueryMatcher getMatcher(boolean partial) {
+            if (matchers == null || !Objects.equals(matcherQuery, query)) {
+                matcherQuery = query;
+                matchers = new QueryMatcher[2];
+            }
+            int index = (partial ? 1 : 0);
+            if (matchers[index] == null)
+                matchers[index] = new QueryMatcher(query, partial);
+            return matchers[index];
+        }
+
         String getJsoup() {
             if (query == null)
                 return null;
@@ -60,6 +60,7 @@ import com.sun.mail.iap.CommandFailedException;
 import com.sun.mail.iap.ConnectionException;
 import com.sun.mail.iap.ProtocolException;
 import com.sun.mail.iap.Response;
+import com.sun.mail.iap.ResponseHandler;
 import com.sun.mail.imap.AppendUID;
 import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPMessage;
@@ -99,12 +100,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -145,6 +148,8 @@ class Core {
     private static final long SCREEN_ON_DURATION = 3000L; // milliseconds
     private static final int SYNC_BATCH_SIZE = 20;
     private static final int DOWNLOAD_BATCH_SIZE = 20;
+    private static final int DOWNLOAD_PREFETCH_SIZE = 256 * 1024; // bytes
+    private static final int DOWNLOAD_PREFETCH_TOTAL = 2 * 1024 * 1024; // bytes
     private static final long YIELD_DURATION = 200L; // milliseconds
     private static final long JOIN_WAIT_ALIVE = 5 * 60 * 1000L; // milliseconds
     private static final long JOIN_WAIT_INTERRUPT = 1 * 60 * 1000L; // milliseconds
@@ -3558,11 +3563,13 @@ class Core {
             }
 
             // Check uid validity
+            boolean uidv_changed = false;
             try {
                 long uidv = ifolder.getUIDValidity();
                 if (folder.uidv != null && !folder.uidv.equals(uidv)) {
                     Log.w(folder.name + " uid validity changed from " + folder.uidv + " to " + uidv);
                     db.message().deleteLocalMessages(folder.id);
+                    uidv_changed = true;
                 }
                 folder.uidv = uidv;
                 db.folder().setFolderUidValidity(folder.id, uidv);
@@ -3589,6 +3596,25 @@ class Core {
                     Log.w(folder.name, ex);
                 }
 
+            // https://datatracker.ietf.org/doc/html/rfc3501#section-2.3.1.1
+            // The set of messages on the server did not change when UIDNEXT and the number of messages are the same
+            Long uidnext = null;
+            int sync_count = -1;
+            if (!uidv_changed)
+                try {
+                    uidnext = ifolder.getUIDNext();
+                    if (uidnext < 0)
+                        uidnext = null;
+                    sync_count = MessageHelper.getMessageCount(ifolder);
+                } catch (MessagingException ex) {
+                    Log.w(folder.name, ex);
+                }
+            boolean same = (!force && initialize == 0 &&
+                    uidnext != null && uidnext.equals(folder.uidnext) &&
+                    sync_count >= 0 && folder.sync_count != null && folder.sync_count == sync_count);
+            Log.i(folder.name + " uidnext=" + uidnext + "/" + folder.uidnext +
+                    " count=" + sync_count + "/" + folder.sync_count + " same=" + same);
+
             // Get reference times
             Calendar cal_sync = Calendar.getInstance();
             cal_sync.add(Calendar.DAY_OF_MONTH, -sync_days);
@@ -3637,10 +3663,47 @@ class Core {
             Message[] imessages;
             long search;
             Long[] ids;
-            if (modified || !sync_quick_imap || force) {
+            if (modified || force || (!sync_quick_imap && !same)) {
                 // Get list of local uids
-                final List<Long> uids = db.message().getUids(folder.id, sync_kept || force ? null : sync_time);
-                Log.i(folder.name + " local count=" + uids.size());
+                final LongHashSet uids = new LongHashSet(
+                        db.message().getUids(folder.id, sync_kept || force ? null : sync_time));
+
+                // Resolve local messages in one query: uid > id, negative for hidden messages
+                List<TupleUid> tuids = db.message().getMessageUids(folder.id);
+                LongLongMap local = new LongLongMap(tuids.size());
+                for (TupleUid tuid : tuids)
+                    local.put(tuid.uid, tuid.ui_hide ? -tuid.id : tuid.id);
+                tuids = null;
+
+                Log.i(folder.name + " local count=" + uids.size() + "/" + local.size());
+
+                // https://datatracker.ietf.org/doc/html/rfc7162#section-3.1.4.1
+                // Only messages changed since the last sync need to be synchronized
+                Set<Long> changed = null;
+                if (modified && !force && initialize == 0 && !uidv_changed &&
+                        modseq != null && folder.modseq != null && modseq > folder.modseq)
+                    try {
+                        long delta = SystemClock.elapsedRealtime();
+                        changed = getChangedSince(ifolder, folder.modseq);
+                        EntityLog.log(context, folder.name + " changed since=" + folder.modseq +
+                                " count=" + changed.size() +
+                                " elapsed=" + (SystemClock.elapsedRealtime() - delta) + " ms");
+                    } catch (FolderClosedException ex) {
+                        throw ex;
+                    } catch (Throwable ex) {
+                        Log.w(folder.name, ex);
+                        changed = null;
+                    }
+
+                // Without new or expunged messages, only the changed messages need to be fetched
+                boolean partial = (same && changed != null);
+                if (partial)
+                    for (long uid : changed)
+                        if (!local.containsKey(uid)) {
+                            Log.i(folder.name + " changed unknown uid=" + uid);
+                            partial = false;
+                            break;
+                        }
 
                 if (BuildConfig.DEBUG || log)
                     try {
@@ -3670,7 +3733,18 @@ class Core {
                     searchTerm = new OrTerm(searchTerm, new FlagTerm(new Flags(Flags.Flag.FLAGGED), true));
 
                 search = SystemClock.elapsedRealtime();
-                if (sync_time == 0)
+                if (partial) {
+                    List<Message> list = new ArrayList<>();
+                    for (Message imessage : ifolder.getMessagesByUID(Helper.toLongArray(new ArrayList<>(changed))))
+                        if (imessage != null)
+                            list.add(imessage);
+                    imessages = list.toArray(new Message[0]);
+
+                    // Unchanged local messages still exist on the server
+                    for (long uid : uids.toArray())
+                        if (!changed.contains(uid))
+                            uids.remove(uid);
+                } else if (sync_time == 0)
                     imessages = ifolder.getMessages();
                 else
                     try {
@@ -3710,9 +3784,9 @@ class Core {
 
                         try {
                             long uid = ifolder.getUID(imessages[i]);
-                            EntityMessage message = db.message().getMessageByUid(folder.id, uid);
-                            ids[i] = (message == null ? null : message.id);
-                            if (message == null || message.ui_hide) {
+                            long id = local.get(uid, 0);
+                            ids[i] = (id == 0 ? null : Math.abs(id));
+                            if (id <= 0) {
                                 Log.i(folder.name + " missing uid=" + uid);
                                 modified = true;
                                 break;
@@ -3741,9 +3815,32 @@ class Core {
                     fp.add(FetchProfile.Item.FLAGS); // To update existing messages
                     if (account.isGmail())
                         fp.add(GmailFolder.FetchProfileItem.LABELS);
-                    ifolder.fetch(imessages, fp);
 
-                    stats.flags = imessages.length;
+                    // Existing, unchanged messages: uid > local id, zero for hidden messages
+                    LongLongMap unchanged = new LongLongMap();
+                    if (changed == null) {
+                        ifolder.fetch(imessages, fp);
+                        stats.flags = imessages.length;
+                    } else {
+                        FetchProfile ufp = new FetchProfile();
+                        ufp.add(UIDFolder.FetchProfileItem.UID);
+                        ifolder.fetch(imessages, ufp);
+
+                        List<Message> delta = new ArrayList<>();
+                        for (Message imessage : imessages) {
+                            long uid = ifolder.getUID(imessage);
+                            long id = (changed.contains(uid) ? 0 : local.get(uid, 0));
+                            if (id == 0)
+                                delta.add(imessage);
+                            else
+                                unchanged.put(uid, Math.max(0, id));
+                        }
+
+                        ifolder.fetch(delta.toArray(new Message[0]), fp);
+                        stats.flags = delta.size();
+                        Log.i(folder.name + " delta=" + delta.size() + " unchanged=" + unchanged.size());
+                    }
+
                     stats.flags_ms = (SystemClock.elapsedRealtime() - fetch);
                     Log.i(folder.name + " remote fetched=" + stats.flags_ms + " ms");
 
@@ -3765,10 +3862,13 @@ class Core {
                         state.ensureRunning("Sync/IMAP/delete");
 
                         try {
-                            if (perform_expunge && imessages[i].isSet(Flags.Flag.DELETED))
+                            long uid = ifolder.getUID(imessages[i]);
+                            if (unchanged.containsKey(uid))
+                                uids.remove(uid);
+                            else if (perform_expunge && imessages[i].isSet(Flags.Flag.DELETED))
                                 deleted.add(imessages[i]);
                             else
-                                uids.remove(ifolder.getUID(imessages[i]));
+                                uids.remove(uid);
                         } catch (MessageRemovedException ex) {
                             Log.w(folder.name, ex);
                         } catch (FolderClosedException ex) {
@@ -3798,7 +3898,7 @@ class Core {
                                 List<Pair<Long, Long>> ranges = new ArrayList<>();
                                 long first = -1;
                                 long last = -1;
-                                for (long uid : uids)
+                                for (long uid : uids.toSortedArray())
                                     if (first < 0)
                                         first = uid;
                                     else if ((last < 0 ? first : last) + 1 == uid)
@@ -3834,85 +3934,79 @@ class Core {
                                             sb.append(range.first).append(':').append(range.second);
                                     }
                                     String command = "UID FETCH " + sb + " (UID FLAGS)";
-                                    Response[] responses = protocol.command(command, null);
-
-                                    if (responses.length > 0 && responses[responses.length - 1].isOK()) {
-                                        for (Response response : responses)
-                                            if (response instanceof FetchResponse) {
-                                                FetchResponse fr = (FetchResponse) response;
-                                                UID uid = fr.getItem(UID.class);
-                                                FLAGS flags = fr.getItem(FLAGS.class);
-                                                if (uid == null || flags == null)
-                                                    continue;
-                                                if (perform_expunge && flags.contains(Flags.Flag.DELETED))
-                                                    continue;
-
-                                                uids.remove(uid.uid);
-
-                                                if (force) {
-                                                    EntityMessage message = db.message().getMessageByUid(folder.id, uid.uid);
-                                                    if (message != null) {
-                                                        boolean update = false;
-                                                        boolean recent = flags.contains(Flags.Flag.RECENT);
-                                                        boolean seen = flags.contains(Flags.Flag.SEEN);
-                                                        boolean answered = flags.contains(Flags.Flag.ANSWERED);
-                                                        boolean flagged = flags.contains(Flags.Flag.FLAGGED);
-                                                        boolean deleted = flags.contains(Flags.Flag.DELETED);
-                                                        if (message.recent != recent) {
-                                                            update = true;
-                                                            message.recent = recent;
-                                                            Log.i("UID fetch recent=" + recent);
-                                                        }
-                                                        if (message.seen != seen) {
-                                                            update = true;
-                                                            message.seen = seen;
-                                                            message.ui_seen = seen;
-                                                            Log.i("UID fetch seen=" + seen);
-                                                        }
-                                                        if (message.answered != answered) {
-                                                            update = true;
-                                                            message.answered = answered;
-                                                            message.ui_answered = answered;
-                                                            Log.i("UID fetch answered=" + answered);
-                                                        }
-                                                        if (message.flagged != flagged) {
-                                                            update = true;
-                                                            message.flagged = flagged;
-                                                            message.ui_flagged = flagged;
-                                                            Log.i("UID fetch flagged=" + flagged);
-                                                        }
-                                                        if (message.deleted != deleted) {
-                                                            update = true;
-                                                            message.deleted = deleted;
-                                                            message.ui_deleted = deleted;
-                                                            message.ui_ignored = deleted;
-                                                            Log.i("UID fetch deleted=" + deleted);
-                                                        }
-
-                                                        if (update)
-                                                            db.message().updateMessage(message);
-                                                    }
+                                    // Process responses while they are being read
+                                    UidFlagsHandler handler = new UidFlagsHandler(protocol, perform_expunge);
+                                    Response response = protocol.command(command, null, handler);
+                                    protocol.notifyResponseHandlers(response);
+
+                                    for (int f = 0; f < handler.count; f++) {
+                                        long uid = handler.uids[f];
+                                        int flags = handler.flags[f];
+                                        uids.remove(uid);
+
+                                        if (force) {
+                                            EntityMessage message = db.message().getMessageByUid(folder.id, uid);
+                                            if (message != null) {
+                                                boolean update = false;
+                                                boolean recent = ((flags & UidFlagsHandler.RECENT) != 0);
+                                                boolean seen = ((flags & UidFlagsHandler.SEEN) != 0);
+                                                boolean answered = ((flags & UidFlagsHandler.ANSWERED) != 0);
+                                                boolean flagged = ((flags & UidFlagsHandler.FLAGGED) != 0);
+                                                boolean deleted = ((flags & UidFlagsHandler.DELETED) != 0);
+                                                if (message.recent != recent) {
+                                                    update = true;
+                                                    message.recent = recent;
+                                                    Log.i("UID fetch recent=" + recent);
                                                 }
-                                            }
-                                    } else {
-                                        for (Response response : responses)
-                                            if (response.isBYE())
-                                                return new MessagingException("UID FETCH", new IOException(response.toString()));
-                                            else if (response.isNO()) {
-                                                Log.e("UID FETCH " + response);
-                                                throw new CommandFailedException(response);
-                                            } else if (response.isBAD()) {
-                                                Log.e("UID FETCH " + response);
-                                                // BAD Error in IMAP command UID FETCH: Too long argument (n.nnn + n.nnn + n.nnn secs).
-                                                if (response.toString().contains("Too long argument")) {
-                                                    chunk_size = chunk_size / 2;
-                                                    if (chunk_size > 0)
-                                                        prefs.edit().putInt("chunk_size", chunk_size).apply();
+                                                if (message.seen != seen) {
+                                                    update = true;
+                                                    message.seen = seen;
+                                                    message.ui_seen = seen;
+                                                    Log.i("UID fetch seen=" + seen);
+                                                }
+                                                if (message.answered != answered) {
+                                                    update = true;
+                                                    message.answered = answered;
+                                                    message.ui_answered = answered;
+                                                    Log.i("UID fetch answered=" + answered);
+                                                }
+                                                if (message.flagged != flagged) {
+                                                    update = true;
+                                                    message.flagged = flagged;
+                                                    message.ui_flagged = flagged;
+                                                    Log.i("UID fetch flagged=" + flagged);
                                                 }
-                                                throw new BadCommandException(response);
+                                                if (message.deleted != deleted) {
+                                                    update = true;
+                                                    message.deleted = deleted;
+                                                    message.ui_deleted = deleted;
+                                                    message.ui_ignored = deleted;
+                                                    Log.i("UID fetch deleted=" + deleted);
+                                                }
+
+                                                if (update)
+                                                    db.message().updateMessage(message);
                                             }
-                                        throw new ProtocolException("UID FETCH failed");
+                                        }
                                     }
+
+                                    if (!response.isOK())
+                                        if (response.isBYE())
+                                            return new MessagingException("UID FETCH", new IOException(response.toString()));
+                                        else if (response.isNO()) {
+                                            Log.e("UID FETCH " + response);
+                                            throw new CommandFailedException(response);
+                                        } else if (response.isBAD()) {
+                                            Log.e("UID FETCH " + response);
+                                            // BAD Error in IMAP command UID FETCH: Too long argument (n.nnn + n.nnn + n.nnn secs).
+                                            if (response.toString().contains("Too long argument")) {
+                                                chunk_size = chunk_size / 2;
+                                                if (chunk_size > 0)
+                                                    prefs.edit().putInt("chunk_size", chunk_size).apply();
+                                            }
+                                            throw new BadCommandException(response);
+                                        } else
+                                            throw new ProtocolException("UID FETCH failed");
                                 }
 
                                 return null;
@@ -3928,7 +4022,7 @@ class Core {
 
                     // Delete local messages not at remote
                     Log.i(folder.name + " delete=" + uids.size());
-                    for (Long uid : uids) {
+                    for (long uid : uids.toSortedArray()) {
                         int count = db.message().deleteMessage(folder.id, uid);
                         Log.i(folder.name + " delete local uid=" + uid + " count=" + count);
                     }
@@ -3959,8 +4053,7 @@ class Core {
                         List<Message> full = new ArrayList<>();
                         for (Message imessage : isub) {
                             long uid = ifolder.getUID(imessage); // already fetched
-                            EntityMessage message = db.message().getMessageByUid(folder.id, uid);
-                            if (message == null)
+                            if (!local.containsKey(uid))
                                 full.add(imessage);
                         }
                         if (full.size() > 0) {
@@ -3981,57 +4074,72 @@ class Core {
                         Log.breadcrumb("sync", crumb);
                         Log.i("Sync " + from + ".." + i + " free=" + free);
 
-                        for (int j = isub.length - 1; j >= 0; j--) {
-                            state.ensureRunning("Sync/IMAP/sync");
+                        List<EntityMessage> classify = new ArrayList<>();
+                        try {
+                            for (int j = isub.length - 1; j >= 0; j--) {
+                                state.ensureRunning("Sync/IMAP/sync");
 
-                            try {
-                                dc.start();
+                                try {
+                                    dc.start();
 
-                                // Some providers erroneously return old messages
-                                if (full.contains(isub[j]))
-                                    try {
-                                        Date received = isub[j].getReceivedDate();
-                                        if (received == null || received.getTime() == 0)
-                                            received = isub[j].getSentDate();
-                                        boolean unseen = (sync_unseen && !isub[j].isSet(Flags.Flag.SEEN));
-                                        boolean flagged = (sync_flagged && isub[j].isSet(Flags.Flag.FLAGGED));
-                                        if (received != null && received.getTime() < keep_time && !unseen && !flagged) {
-                                            long uid = ifolder.getUID(isub[j]);
-                                            Log.i(folder.name + " Skipping old uid=" + uid + " date=" + received);
-                                            ids[from + j] = null;
+                                    if (unchanged.size() > 0) {
+                                        long uid = ifolder.getUID(isub[j]); // already fetched
+                                        if (unchanged.containsKey(uid)) {
+                                            long id = unchanged.get(uid, 0);
+                                            ids[from + j] = (id == 0 ? null : id);
                                             continue;
                                         }
-                                    } catch (Throwable ex) {
-                                        Log.w(ex);
                                     }
 
-                                EntityMessage message = synchronizeMessage(
-                                        context,
-                                        account, folder,
-                                        istore, ifolder, (MimeMessage) isub[j],
-                                        false, download && initialize == 0,
-                                        rules, state, stats);
-                                ids[from + j] = (message == null || message.ui_hide ? null : message.id);
-                            } catch (MessageRemovedException ex) {
-                                Log.w(folder.name, ex);
-                            } catch (FolderClosedException ex) {
-                                throw ex;
-                            } catch (IOException ex) {
-                                if (ex.getCause() instanceof MessagingException) {
+                                    // Some providers erroneously return old messages
+                                    if (full.contains(isub[j]))
+                                        try {
+                                            Date received = isub[j].getReceivedDate();
+                                            if (received == null || received.getTime() == 0)
+                                                received = isub[j].getSentDate();
+                                            boolean unseen = (sync_unseen && !isub[j].isSet(Flags.Flag.SEEN));
+                                            boolean flagged = (sync_flagged && isub[j].isSet(Flags.Flag.FLAGGED));
+                                            if (received != null && received.getTime() < keep_time && !unseen && !flagged) {
+                                                long uid = ifolder.getUID(isub[j]);
+                                                Log.i(folder.name + " Skipping old uid=" + uid + " date=" + received);
+                                                ids[from + j] = null;
+                                                continue;
+                                            }
+                                        } catch (Throwable ex) {
+                                            Log.w(ex);
+                                        }
+
+                                    EntityMessage message = synchronizeMessage(
+                                            context,
+                                            account, folder,
+                                            istore, ifolder, (MimeMessage) isub[j],
+                                            false, download && initialize == 0,
+                                            rules, state, stats, classify);
+                                    ids[from + j] = (message == null || message.ui_hide ? null : message.id);
+                                } catch (MessageRemovedException ex) {
                                     Log.w(folder.name, ex);
+                                } catch (FolderClosedException ex) {
+                                    throw ex;
+                                } catch (IOException ex) {
+                                    if (ex.getCause() instanceof MessagingException) {
+                                        Log.w(folder.name, ex);
+                                        modseq = null;
+                                        db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
+                                    } else
+                                        throw ex;
+                                } catch (Throwable ex) {
+                                    Log.e(folder.name, ex);
                                     modseq = null;
                                     db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
-                                } else
-                                    throw ex;
-                            } catch (Throwable ex) {
-                                Log.e(folder.name, ex);
-                                modseq = null;
-                                db.folder().setFolderError(folder.id, Log.formatThrowable(ex));
-                            } finally {
-                                // Free memory
-                                isub[j] = null;
-                                dc.stop(state.getForeground(), from == 0 && j == 0);
+                                } finally {
+                                    // Free memory
+                                    isub[j] = null;
+                                    dc.stop(state.getForeground(), from == 0 && j == 0);
+                                }
                             }
+                        } finally {
+                            // Unhide deferred messages
+                            classifyMessages(context, folder, classify, ids, from, i);
                         }
                     }
                 }
@@ -4072,6 +4180,15 @@ class Core {
             // Update stats
             int count = MessageHelper.getMessageCount(ifolder);
             db.folder().setFolderTotal(folder.id, count < 0 ? null : count);
+
+            // Messages added or expunged while synchronizing will be picked up by the next sync
+            if (modseq == null || count != sync_count) {
+                uidnext = null;
+                sync_count = -1;
+            }
+            folder.uidnext = uidnext;
+            folder.sync_count = (sync_count < 0 ? null : sync_count);
+            db.folder().setFolderUidNext(folder.id, folder.uidnext, folder.sync_count);
             account.last_connected = new Date().getTime();
             db.account().setAccountConnected(account.id, account.last_connected);
 
@@ -4099,6 +4216,16 @@ class Core {
                     Log.breadcrumb("download", crumb);
                     Log.i("Download " + from + ".." + i + " free=" + free);
 
+                    Set<Message> prefetched = new HashSet<>();
+                    try {
+                        prefetched.addAll(prefetchMessages(context, folder, ifolder, isub, ids, from, state, stats));
+                    } catch (FolderClosedException ex) {
+                        throw ex;
+                    } catch (Throwable ex) {
+                        // Messages will be fetched one by one
+                        Log.w(folder.name, ex);
+                    }
+
                     for (int j = isub.length - 1; j >= 0; j--) {
                         state.ensureRunning("Sync/IMAP/download");
 
@@ -4117,6 +4244,9 @@ class Core {
                             Log.e(folder.name, ex);
                         } finally {
                             // Free memory
+                            // The folder keeps referencing its messages, including the prefetched content
+                            if (prefetched.remove(isub[j]))
+                                ((IMAPMessage) isub[j]).invalidateHeaders();
                             isub[j] = null;
                             dc.stop(state.getForeground(), from == 0 && j == 0);
                         }
@@ -4155,12 +4285,138 @@ class Core {
         }
     }
 
+    private static class UidFlagsHandler implements ResponseHandler {
+        private final IMAPProtocol protocol;
+        private final boolean perform_expunge;
+
+        static final int RECENT = 1;
+        static final int SEEN = 2;
+        static final int ANSWERED = 4;
+        static final int FLAGGED = 8;
+        static final int DELETED = 16;
+
+        // Existing messages: uid and flag bits, processed after the command completed
+        long[] uids = new long[64];
+        int[] flags = new int[64];
+        int count = 0;
+
+        UidFlagsHandler(IMAPProtocol protocol, boolean perform_expunge) {
+            this.protocol = protocol;
+            this.perform_expunge = perform_expunge;
+        }
+
+        @Override
+        public void handleResponse(Response response) {
+            if (!(response instanceof FetchResponse)) {
+                // EXISTS, EXPUNGE, etc
+                protocol.notifyResponseHandlers(response);
+                return;
+            }
+
+            FetchResponse fr = (FetchResponse) response;
+            UID uid = fr.getItem(UID.class);
+            FLAGS flags = fr.getItem(FLAGS.class);
+            if (uid == null || flags == null)
+                return;
+            if (perform_expunge && flags.contains(Flags.Flag.DELETED))
+                return;
+
+            int bits = 0;
+            if (flags.contains(Flags.Flag.RECENT))
+                bits |= RECENT;
+            if (flags.contains(Flags.Flag.SEEN))
+                bits |= SEEN;
+            if (flags.contains(Flags.Flag.ANSWERED))
+                bits |= ANSWERED;
+            if (flags.contains(Flags.Flag.FLAGGED))
+                bits |= FLAGGED;
+            if (flags.contains(Flags.Flag.DELETED))
+                bits |= DELETED;
+
+            if (count == uids.length) {
+                uids = Arrays.copyOf(uids, count * 2);
+                this.flags = Arrays.copyOf(this.flags, count * 2);
+            }
+            uids[count] = uid.uid;
+            this.flags[count] = bits;
+            count++;
+        }
+    }
+
+    private static Set<Long> getChangedSince(IMAPFolder ifolder, final long modseq) throws MessagingException {
+        // This is done outside of JavaMail to prevent changed notifications
+        return (Set<Long>) ifolder.doCommand(new IMAPFolder.ProtocolCommand() {
+            @Override
+            public Object doCommand(IMAPProtocol protocol) throws ProtocolException {
+                final Set<Long> uids = new HashSet<>();
+                Response response = protocol.command(
+                        "UID FETCH 1:* (UID) (CHANGEDSINCE " + modseq + ")", null,
+                        new ResponseHandler() {
+                            @Override
+                            public void handleResponse(Response response) {
+                                if (response instanceof FetchResponse) {
+                                    UID uid = ((FetchResponse) response).getItem(UID.class);
+                                    if (uid != null)
+                                        uids.add(uid.uid);
+                                } else
+                                    protocol.notifyResponseHandlers(response); // EXISTS, EXPUNGE, etc
+                            }
+                        });
+                protocol.notifyResponseHandlers(response);
+                protocol.handleResult(response);
+                return uids;
+            }
+        });
+    }
+
+    private static void classifyMessages(
+            Context context, EntityFolder folder, List<EntityMessage> classify,
+            Long[] ids, int from, int to) {
+        if (classify.size() == 0)
+            return;
+
+        // Called from a finally block, so don't throw
+        DB db = DB.getInstance(context);
+        try {
+            MessageClassifier.classify(classify, folder, true, context);
+        } catch (Throwable ex) {
+            Log.e(folder.name, ex);
+        } finally {
+            for (EntityMessage message : classify)
+                if (message.ui_hide) {
+                    // Moved by the classifier
+                    for (int k = from; k <= to; k++)
+                        if (Objects.equals(ids[k], message.id))
+                            ids[k] = null;
+                } else
+                    try {
+                        db.message().setMessageUiHide(message.id, false);
+                    } catch (Throwable ex) {
+                        Log.e(folder.name, ex);
+                    }
+        }
+    }
+
     static EntityMessage synchronizeMessage(
             Context context,
             EntityAccount account, EntityFolder folder,
             IMAPStore istore, IMAPFolder ifolder, MimeMessage imessage,
             boolean browsed, boolean download,
             List<EntityRule> rules, State state, SyncStats stats) throws MessagingException, IOException {
+        return synchronizeMessage(context,
+                account, folder,
+                istore, ifolder, imessage,
+                browsed, download,
+                rules, state, stats, null);
+    }
+
+    static EntityMessage synchronizeMessage(
+            Context context,
+            EntityAccount account, EntityFolder folder,
+            IMAPStore istore, IMAPFolder ifolder, MimeMessage imessage,
+            boolean browsed, boolean download,
+            List<EntityRule> rules, State state, SyncStats stats,
+            List<EntityMessage> classify) throws MessagingException, IOException {
         DB db = DB.getInstance(context);
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         boolean download_headers = prefs.getBoolean("download_headers", false);
@@ -4627,6 +4883,7 @@ class Core {
                             maxSize = MessageHelper.SMALL_MESSAGE_SIZE;
                     }
 
+                    boolean deferred = false;
                     if (body != null ||
                             (message.size != null && message.size < maxSize) ||
                             (MessageClassifier.isEnabled(context)) && folder.auto_classify_source)
@@ -4645,7 +4902,13 @@ class Core {
                                     parts.isPlainOnly(download_plain),
                                     message.preview,
                                     parts.getWarnings(message.warning));
-                            MessageClassifier.classify(message, folder, true, context);
+                            if (classify == null)
+                                MessageClassifier.classify(message, folder, true, context);
+                            else {
+                                // Classified in batch by the caller
+                                classify.add(message);
+                                deferred = true;
+                            }
 
                             if (stats != null && body != null)
                                 stats.content += body.length();
@@ -4655,7 +4918,7 @@ class Core {
                             if (TextUtils.isEmpty(body) && parts.hasBody())
                                 reportEmptyMessage(context, state, account, istore);
                         } finally {
-                            if (!message.ui_hide)
+                            if (!message.ui_hide && !deferred)
                                 db.message().setMessageUiHide(message.id, false);
                         }
                 }
@@ -5062,6 +5325,65 @@ class Core {
         }
     }
 
+    private static List<Message> prefetchMessages(
+            Context context, EntityFolder folder, IMAPFolder ifolder,
+            Message[] isub, Long[] ids, int from, State state, SyncStats stats) throws MessagingException {
+        List<Message> prefetch = new ArrayList<>();
+        if (state.getNetworkState().isRoaming())
+            return prefetch;
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long maxSize = prefs.getInt("download", MessageHelper.DEFAULT_DOWNLOAD_SIZE);
+        if (maxSize == 0)
+            maxSize = Long.MAX_VALUE;
+        boolean unmetered = state.getNetworkState().isUnmetered();
+
+        List<Long> mids = new ArrayList<>();
+        for (int j = 0; j < isub.length; j++)
+            if (ids[from + j] != null)
+                mids.add(ids[from + j]);
+        if (mids.size() < 2)
+            return prefetch;
+
+        DB db = DB.getInstance(context);
+        Map<Long, EntityMessage> messages = new HashMap<>();
+        for (EntityMessage message : db.message().getMessages(mids))
+            messages.put(message.id, message);
+
+        // Small messages without content, within the download limit
+        long bytes = 0;
+        for (int j = 0; j < isub.length; j++) {
+            EntityMessage message = (ids[from + j] == null ? null : messages.get(ids[from + j]));
+            if (message == null || message.ui_hide || message.content)
+                continue;
+            if (message.total == null || message.total > DOWNLOAD_PREFETCH_SIZE)
+                continue;
+            if (!unmetered && (message.size == null || message.size >= maxSize))
+                continue;
+            if (bytes + message.total > DOWNLOAD_PREFETCH_TOTAL)
+                break;
+            bytes += message.total;
+            prefetch.add(isub[j]);
+        }
+
+        if (prefetch.size() < 2) {
+            prefetch.clear();
+            return prefetch;
+        }
+
+        // One UID FETCH BODY.PEEK[] for the whole batch instead of a round trip per message
+        long start = SystemClock.elapsedRealtime();
+        FetchProfile fp = new FetchProfile();
+        fp.add(IMAPFolder.FetchProfileItem.MESSAGE);
+        ifolder.fetch(prefetch.toArray(new Message[0]), fp);
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        if (stats != null)
+            stats.prefetched += prefetch.size();
+        Log.i(folder.name + " prefetched=" + prefetch.size() + " bytes=" + bytes + " elapsed=" + elapsed + " ms");
+        return prefetch;
+    }
+
     private static boolean downloadMessage(
             Context context,
             EntityAccount account, EntityFolder folder,
@@ -6444,6 +6766,7 @@ class Core {
         long headers_ms;
         long content;
         long attachments;
+        int prefetched;
         long total;
 
         boolean isEmpty() {
@@ -6456,6 +6779,7 @@ class Core {
                     headers_ms == 0 &&
                     content == 0 &&
                     attachments == 0 &&
+                    prefetched == 0 &&
                     total == 0);
         }
 
@@ -6467,6 +6791,7 @@ class Core {
                     " headers=" + headers + "/" + headers_ms + " ms" +
                     " content=" + Helper.humanReadableByteCount(content) +
                     " attachments=" + Helper.humanReadableByteCount(attachments) +
+                    " prefetched=" + prefetched +
                     " total=" + total + " ms";
         }
     }
@@ -36,6 +36,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -68,7 +69,7 @@ import javax.mail.internet.InternetAddress;
 // https://developer.android.com/topic/libraries/architecture/room.html
 
 @Database(
-        version = 280,
+        version = 283,
         entities = {
                 EntityIdentity.class,
                 EntityAccount.class,
@@ -81,7 +82,9 @@ import javax.mail.internet.InternetAddress;
                 EntityAnswer.class,
                 EntityRule.class,
                 EntitySearch.class,
-                EntityLog.class
+                EntityLog.class,
+                EntityFolderCounter.class,
+                EntityThreadSummary.class
         },
         views = {
                 TupleAccountView.class,
@@ -419,6 +422,8 @@ public abstract class DB extends RoomDatabase {
                 Log.e(ex);
             }
 
+            sInstance.getInvalidationTracker().setRowTracking("message", "id", "account", "folder");
+
             sInstance.getInvalidationTracker().addObserver(new InvalidationTracker.Observer(DB_TABLES) {
                 @Override
                 public void onInvalidated(@NonNull Set<String> tables) {
@@ -551,6 +556,21 @@ public abstract class DB extends RoomDatabase {
 
         db.execSQL("DROP TRIGGER IF EXISTS `account_update`");
         db.execSQL("DROP TRIGGER IF EXISTS `identity_update`");
+
+        db.execSQL("DROP TRIGGER IF EXISTS `folder_counter_insert`");
+        db.execSQL("DROP TRIGGER IF EXISTS `folder_counter_delete`");
+        db.execSQL("DROP TRIGGER IF EXISTS `message_counter_insert`");
+        db.execSQL("DROP TRIGGER IF EXISTS `message_counter_delete`");
+        db.execSQL("DROP TRIGGER IF EXISTS `message_counter_update`");
+        db.execSQL("DROP TRIGGER IF EXISTS `operation_counter_insert`");
+        db.execSQL("DROP TRIGGER IF EXISTS `operation_counter_delete`");
+        db.execSQL("DROP TRIGGER IF EXISTS `operation_counter_update`");
+
+        db.execSQL("DROP TRIGGER IF EXISTS `thread_summary_insert`");
+        db.execSQL("DROP TRIGGER IF EXISTS `thread_summary_delete`");
+        db.execSQL("DROP TRIGGER IF EXISTS `thread_summary_update`");
+        db.execSQL("DROP TRIGGER IF EXISTS `thread_summary_flags`");
+        db.execSQL("DROP TRIGGER IF EXISTS `thread_summary_folder`");
     }
 
     private static void createTriggers(@NonNull SupportSQLiteDatabase db) {
@@ -612,6 +632,169 @@ public abstract class DB extends RoomDatabase {
                 "  AND OLD.last_connected IS NEW.last_connected" +
                 "  AND (NEW.auth_type = " + AUTH_TYPE_PASSWORD + " OR OLD.password = NEW.password);" +
                 " END");
+
+        // Folder counters, see DaoFolder.checkCounters/rebuildCounters
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS folder_counter_insert" +
+                " AFTER INSERT ON folder" +
+                " BEGIN" +
+                "  INSERT OR IGNORE INTO folder_counter (folder, messages, content, unseen, flagged, executing)" +
+                "  VALUES (NEW.id, 0, 0, 0, 0, 0);" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS folder_counter_delete" +
+                " AFTER DELETE ON folder" +
+                " BEGIN" +
+                "  DELETE FROM folder_counter WHERE folder = OLD.id;" +
+                " END");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS message_counter_insert" +
+                " AFTER INSERT ON message" +
+                " WHEN NOT NEW.ui_hide" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET messages = messages + 1" +
+                "  , content = content + (NEW.content <> 0)" +
+                "  , unseen = unseen + (NEW.ui_seen = 0)" +
+                "  , flagged = flagged + (NEW.ui_flagged <> 0)" +
+                "  WHERE folder = NEW.folder;" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS message_counter_delete" +
+                " AFTER DELETE ON message" +
+                " WHEN NOT OLD.ui_hide" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET messages = messages - 1" +
+                "  , content = content - (OLD.content <> 0)" +
+                "  , unseen = unseen - (OLD.ui_seen = 0)" +
+                "  , flagged = flagged - (OLD.ui_flagged <> 0)" +
+                "  WHERE folder = OLD.folder;" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS message_counter_update" +
+                " AFTER UPDATE OF folder, content, ui_seen, ui_flagged, ui_hide ON message" +
+                " WHEN OLD.folder <> NEW.folder" +
+                "  OR OLD.content <> NEW.content" +
+                "  OR OLD.ui_seen <> NEW.ui_seen" +
+                "  OR OLD.ui_flagged <> NEW.ui_flagged" +
+                "  OR OLD.ui_hide <> NEW.ui_hide" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET messages = messages - 1" +
+                "  , content = content - (OLD.content <> 0)" +
+                "  , unseen = unseen - (OLD.ui_seen = 0)" +
+                "  , flagged = flagged - (OLD.ui_flagged <> 0)" +
+                "  WHERE folder = OLD.folder AND NOT OLD.ui_hide;" +
+                "  UPDATE folder_counter SET messages = messages + 1" +
+                "  , content = content + (NEW.content <> 0)" +
+                "  , unseen = unseen + (NEW.ui_seen = 0)" +
+                "  , flagged = flagged + (NEW.ui_flagged <> 0)" +
+                "  WHERE folder = NEW.folder AND NOT NEW.ui_hide;" +
+                " END");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS operation_counter_insert" +
+                " AFTER INSERT ON operation" +
+                " WHEN NEW.state = 'executing'" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET executing = executing + 1" +
+                "  WHERE folder = NEW.folder;" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS operation_counter_delete" +
+                " AFTER DELETE ON operation" +
+                " WHEN OLD.state = 'executing'" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET executing = executing - 1" +
+                "  WHERE folder = OLD.folder;" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS operation_counter_update" +
+                " AFTER UPDATE OF folder, state ON operation" +
+                " WHEN OLD.folder <> NEW.folder" +
+                "  OR (OLD.state IS 'executing') <> (NEW.state IS 'executing')" +
+                " BEGIN" +
+                "  UPDATE folder_counter SET executing = executing - 1" +
+                "  WHERE folder = OLD.folder AND OLD.state = 'executing';" +
+                "  UPDATE folder_counter SET executing = executing + 1" +
+                "  WHERE folder = NEW.folder AND NEW.state = 'executing';" +
+                " END");
+
+        // Thread summaries, see DaoMessage.pagedUnifiedSummary
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS thread_summary_insert" +
+                " AFTER INSERT ON message" +
+                " WHEN NOT NEW.thread IS NULL AND NOT NEW.ui_hide" +
+                " BEGIN" +
+                "  " + EntityThreadSummary.getDeleteSql("NEW.account", "NEW.thread") + ";" +
+                "  " + EntityThreadSummary.getSummarizeSql(
+                "message.account = NEW.account AND message.thread = NEW.thread") + ";" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS thread_summary_delete" +
+                " AFTER DELETE ON message" +
+                " WHEN NOT OLD.thread IS NULL AND NOT OLD.ui_hide" +
+                " BEGIN" +
+                "  " + EntityThreadSummary.getDeleteSql("OLD.account", "OLD.thread") + ";" +
+                "  " + EntityThreadSummary.getSummarizeSql(
+                "message.account = OLD.account AND message.thread = OLD.thread") + ";" +
+                " END");
+        // Changes which can change the latest message, the senders or the visible messages
+        String summary_changed = "(OLD.account <> NEW.account" +
+                " OR OLD.thread IS NOT NEW.thread" +
+                " OR OLD.folder <> NEW.folder" +
+                " OR OLD.received <> NEW.received" +
+                " OR OLD.`from` IS NOT NEW.`from`" +
+                " OR OLD.`to` IS NOT NEW.`to`" +
+                " OR OLD.hash IS NOT NEW.hash" +
+                " OR OLD.msgid IS NOT NEW.msgid" +
+                " OR OLD.attachments <> NEW.attachments" +
+                " OR OLD.total IS NOT NEW.total" +
+                " OR OLD.ui_hide <> NEW.ui_hide)";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS thread_summary_update" +
+                " AFTER UPDATE OF account, thread, folder, received, `from`, `to`, hash, msgid" +
+                ", attachments, total, ui_hide ON message" +
+                " WHEN NOT (OLD.thread IS NULL AND NEW.thread IS NULL)" +
+                " AND " + summary_changed +
+                " BEGIN" +
+                "  " + EntityThreadSummary.getDeleteSql("OLD.account", "OLD.thread") + ";" +
+                "  " + EntityThreadSummary.getDeleteSql("NEW.account", "NEW.thread") + ";" +
+                "  " + EntityThreadSummary.getSummarizeSql(
+                "message.account = OLD.account AND message.thread = OLD.thread") + ";" +
+                "  " + EntityThreadSummary.getSummarizeSql(
+                "message.account = NEW.account AND message.thread = NEW.thread" +
+                        " AND (OLD.account <> NEW.account OR OLD.thread IS NOT NEW.thread)") + ";" +
+                " END");
+        // Bulk seen/flagged/snoozed updates should not summarize threads again
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS thread_summary_flags" +
+                " AFTER UPDATE OF ui_seen, ui_flagged, ui_snoozed ON message" +
+                " WHEN NOT NEW.thread IS NULL AND NOT NEW.ui_hide" +
+                " AND (OLD.ui_seen <> NEW.ui_seen" +
+                "  OR OLD.ui_flagged <> NEW.ui_flagged" +
+                "  OR (OLD.ui_snoozed IS NULL) <> (NEW.ui_snoozed IS NULL))" +
+                " AND NOT " + summary_changed +
+                " BEGIN" +
+                "  UPDATE thread_summary SET" +
+                "   unseen = unseen + OLD.ui_seen - NEW.ui_seen" +
+                "  , unflagged = unflagged + OLD.ui_flagged - NEW.ui_flagged" +
+                "  , snoozed = snoozed + (NEW.ui_snoozed IS NOT NULL) - (OLD.ui_snoozed IS NOT NULL)" +
+                // Unseen duplicates are counted once
+                "  , visible_unseen = visible_unseen + CASE" +
+                "    WHEN OLD.ui_seen = NEW.ui_seen THEN 0" +
+                "    WHEN EXISTS (SELECT * FROM message m" +
+                "     WHERE m.account = NEW.account AND m.thread = NEW.thread" +
+                "     AND m.id <> NEW.id AND NOT m.ui_seen AND NOT m.ui_hide" +
+                "     AND (CASE WHEN NOT m.hash IS NULL THEN m.hash" +
+                "      WHEN NOT m.msgid IS NULL THEN m.msgid ELSE m.id END) =" +
+                "      (CASE WHEN NOT NEW.hash IS NULL THEN NEW.hash" +
+                "      WHEN NOT NEW.msgid IS NULL THEN NEW.msgid ELSE NEW.id END)) THEN 0" +
+                "    ELSE OLD.ui_seen - NEW.ui_seen END" +
+                "  WHERE account = NEW.account AND thread = NEW.thread;" +
+                " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS thread_summary_folder" +
+                " AFTER UPDATE OF unified, type ON folder" +
+                " WHEN OLD.unified <> NEW.unified OR OLD.type <> NEW.type" +
+                " BEGIN" +
+                "  DELETE FROM thread_summary" +
+                "  WHERE EXISTS (SELECT * FROM message m" +
+                "   WHERE m.folder = NEW.id" +
+                "   AND m.account = thread_summary.account" +
+                "   AND m.thread = thread_summary.thread);" +
+                "  " + EntityThreadSummary.getSummarizeSql(
+                "EXISTS (SELECT * FROM message m" +
+                        " WHERE m.folder = NEW.id" +
+                        " AND m.account = message.account" +
+                        " AND m.thread = message.thread)") + ";" +
+                " END");
     }
 
     private static void logMigration(int startVersion, int endVersion) {
@@ -2841,6 +3024,53 @@ public abstract class DB extends RoomDatabase {
                         logMigration(startVersion, endVersion);
                         db.execSQL("ALTER TABLE `folder` ADD COLUMN `flags` TEXT");
                     }
+                }).addMigrations(new Migration(280, 281) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        logMigration(startVersion, endVersion);
+                        db.execSQL("CREATE TABLE IF NOT EXISTS `folder_counter`" +
+                                " (`folder` INTEGER NOT NULL" +
+                                ", `messages` INTEGER NOT NULL" +
+                                ", `content` INTEGER NOT NULL" +
+                                ", `unseen` INTEGER NOT NULL" +
+                                ", `flagged` INTEGER NOT NULL" +
+                                ", `executing` INTEGER NOT NULL" +
+                                ", PRIMARY KEY(`folder`))");
+                        createTriggers(db);
+                        db.execSQL(DaoFolder.REBUILD_COUNTERS);
+                    }
+                }).addMigrations(new Migration(281, 282) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        logMigration(startVersion, endVersion);
+                        db.execSQL("CREATE TABLE IF NOT EXISTS `thread_summary`" +
+                                " (`account` INTEGER NOT NULL" +
+                                ", `thread` TEXT NOT NULL" +
+                                ", `message` INTEGER NOT NULL" +
+                                ", `received` INTEGER NOT NULL" +
+                                ", `count` INTEGER NOT NULL" +
+                                ", `unseen` INTEGER NOT NULL" +
+                                ", `unflagged` INTEGER NOT NULL" +
+                                ", `drafts` INTEGER NOT NULL" +
+                                ", `visible` INTEGER NOT NULL" +
+                                ", `visible_unseen` INTEGER NOT NULL" +
+                                ", `attachments` INTEGER" +
+                                ", `total` INTEGER" +
+                                ", `snoozed` INTEGER NOT NULL" +
+                                ", `senders` TEXT" +
+                                ", `recipients` TEXT" +
+                                ", PRIMARY KEY(`account`, `thread`))");
+                        db.execSQL("CREATE INDEX IF NOT EXISTS `index_thread_summary_message` ON `thread_summary` (`message`)");
+                        createTriggers(db);
+                        EntityThreadSummary.rebuild(db);
+                    }
+                }).addMigrations(new Migration(282, 283) {
+                    @Override
+                    public void migrate(@NonNull SupportSQLiteDatabase db) {
+                        logMigration(startVersion, endVersion);
+                        db.execSQL("ALTER TABLE `folder` ADD COLUMN `uidnext` INTEGER");
+                        db.execSQL("ALTER TABLE `folder` ADD COLUMN `sync_count` INTEGER");
+                    }
                 })
                 .addMigrations(new Migration(998, 999) {
                     @Override
@@ -3044,11 +3274,44 @@ public abstract class DB extends RoomDatabase {
             return jaddresses.toString();
         }
 
+        private static final int MAX_DECODED_ADDRESSES = 1000;
+        private static final int MAX_DECODED_LENGTH = 4096; // characters
+
+        // Keyed by the stored JSON, so the same senders/recipients are parsed once only
+        private static final Map<String, Address[]> decodedAddresses = new LinkedHashMap<String, Address[]>(MAX_DECODED_ADDRESSES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Address[]> eldest) {
+                return (size() > MAX_DECODED_ADDRESSES);
+            }
+        };
+
         @TypeConverter
         public static Address[] decodeAddresses(String json) {
             if (json == null)
                 return null;
 
+            boolean cache = (json.length() <= MAX_DECODED_LENGTH);
+            if (cache) {
+                Address[] cached;
+                synchronized (decodedAddresses) {
+                    cached = decodedAddresses.get(json);
+                }
+                // The addresses are immutable, but callers may replace array elements
+                if (cached != null)
+                    return Arrays.copyOf(cached, cached.length);
+            }
+
+            Address[] addresses = _decodeAddresses(json);
+
+            if (cache)
+                synchronized (decodedAddresses) {
+                    decodedAddresses.put(json, addresses);
+                }
+
+            return Arrays.copyOf(addresses, addresses.length);
+        }
+
+        private static Address[] _decodeAddresses(String json) {
             List<Address> result = new ArrayList<>();
             try {
                 JSONArray jroot = new JSONArray(json);
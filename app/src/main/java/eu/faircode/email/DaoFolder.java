@@ -30,6 +30,23 @@ import java.util.List;
 
 @Dao
 public interface DaoFolder {
+    // Actual counts, maintained by triggers in folder_counter
+    String COUNTERS = "SELECT folder.id AS folder" +
+            ", (SELECT COUNT(*) FROM message WHERE message.folder = folder.id" +
+            "   AND NOT message.ui_hide) AS messages" +
+            ", (SELECT COUNT(*) FROM message WHERE message.folder = folder.id" +
+            "   AND NOT message.ui_hide AND message.content) AS content" +
+            ", (SELECT COUNT(*) FROM message WHERE message.folder = folder.id" +
+            "   AND NOT message.ui_hide AND NOT message.ui_seen) AS unseen" +
+            ", (SELECT COUNT(*) FROM message WHERE message.folder = folder.id" +
+            "   AND NOT message.ui_hide AND message.ui_flagged) AS flagged" +
+            ", (SELECT COUNT(*) FROM operation WHERE operation.folder = folder.id" +
+            "   AND operation.state = 'executing') AS executing" +
+            " FROM folder";
+
+    String REBUILD_COUNTERS = "INSERT OR REPLACE INTO folder_counter" +
+            " (folder, messages, content, unseen, flagged, executing) " + COUNTERS;
+
     @Query("SELECT * FROM folder" +
             " WHERE account = :account" +
             " AND (NOT :writable OR NOT read_only)" +
@@ -41,16 +58,15 @@ public interface DaoFolder {
             ", account.name AS accountName, account.category AS accountCategory, account.color AS accountColor" +
             ", account.state AS accountState, account.error AS accountError" +
             ", COUNT(DISTINCT CASE WHEN rule.enabled THEN rule.id ELSE NULL END) rules" +
-            ", COUNT(DISTINCT message.id) AS messages" +
-            ", COUNT(DISTINCT CASE WHEN message.content = 1 THEN message.id ELSE NULL END) AS content" +
-            ", COUNT(DISTINCT CASE WHEN NOT message.ui_seen THEN message.id ELSE NULL END) AS unseen" +
-            ", COUNT(DISTINCT CASE WHEN message.ui_flagged THEN message.id ELSE NULL END) AS flagged" +
-            ", COUNT(DISTINCT CASE WHEN operation.state = 'executing' THEN operation.id ELSE NULL END) AS executing" +
+            ", IFNULL(counter.messages, 0) AS messages" +
+            ", IFNULL(counter.content, 0) AS content" +
+            ", IFNULL(counter.unseen, 0) AS unseen" +
+            ", IFNULL(counter.flagged, 0) AS flagged" +
+            ", IFNULL(counter.executing, 0) AS executing" +
             " FROM folder" +
             " LEFT JOIN account ON account.id = folder.account" +
-            " LEFT JOIN message ON message.folder = folder.id AND NOT message.ui_hide" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = folder.id" +
             " LEFT JOIN rule ON rule.folder = folder.id" +
-            " LEFT JOIN operation ON operation.folder = folder.id" +
             " WHERE folder.account = :account AND account.synchronize" +
             " GROUP BY folder.id")
     List<TupleFolderEx> getFoldersEx(long account);
@@ -81,16 +97,15 @@ public interface DaoFolder {
             ", account.name AS accountName, account.category AS accountCategory, account.color AS accountColor" +
             ", account.state AS accountState, account.error AS accountError" +
             ", COUNT(DISTINCT CASE WHEN rule.enabled THEN rule.id ELSE NULL END) rules" +
-            ", COUNT(DISTINCT CASE WHEN message.ui_hide THEN NULL ELSE message.id END) AS messages" +
-            ", COUNT(DISTINCT CASE WHEN message.content = 1 AND NOT message.ui_hide THEN message.id ELSE NULL END) AS content" +
-            ", COUNT(DISTINCT CASE WHEN NOT message.ui_seen AND NOT message.ui_hide THEN message.id ELSE NULL END) AS unseen" +
-            ", COUNT(DISTINCT CASE WHEN message.ui_flagged AND NOT message.ui_hide THEN message.id ELSE NULL END) AS flagged" +
-            ", COUNT(DISTINCT CASE WHEN operation.state = 'executing' THEN operation.id ELSE NULL END) AS executing" +
+            ", IFNULL(counter.messages, 0) AS messages" +
+            ", IFNULL(counter.content, 0) AS content" +
+            ", IFNULL(counter.unseen, 0) AS unseen" +
+            ", IFNULL(counter.flagged, 0) AS flagged" +
+            ", IFNULL(counter.executing, 0) AS executing" +
             " FROM folder" +
             " JOIN account ON account.id = folder.account" +
-            " LEFT JOIN message ON message.folder = folder.id" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = folder.id" +
             " LEFT JOIN rule ON rule.folder = folder.id" +
-            " LEFT JOIN operation ON operation.folder = folder.id" +
             " WHERE CASE WHEN :primary THEN account.`primary` ELSE" +
             "  CASE WHEN :account IS NULL" +
             "   THEN folder.unified AND account.synchronize" +
@@ -105,16 +120,15 @@ public interface DaoFolder {
             ", account.name AS accountName, account.category AS accountCategory, account.color AS accountColor" +
             ", account.state AS accountState, account.error AS accountError" +
             ", COUNT(DISTINCT CASE WHEN rule.enabled THEN rule.id ELSE NULL END) rules" +
-            ", COUNT(DISTINCT message.id) AS messages" +
-            ", COUNT(DISTINCT CASE WHEN message.content = 1 THEN message.id ELSE NULL END) AS content" +
-            ", COUNT(DISTINCT CASE WHEN NOT message.ui_seen THEN message.id ELSE NULL END) AS unseen" +
-            ", COUNT(DISTINCT CASE WHEN message.ui_flagged THEN message.id ELSE NULL END) AS flagged" +
-            ", COUNT(DISTINCT CASE WHEN operation.state = 'executing' THEN operation.id ELSE NULL END) AS executing" +
+            ", IFNULL(counter.messages, 0) AS messages" +
+            ", IFNULL(counter.content, 0) AS content" +
+            ", IFNULL(counter.unseen, 0) AS unseen" +
+            ", IFNULL(counter.flagged, 0) AS flagged" +
+            ", IFNULL(counter.executing, 0) AS executing" +
             " FROM folder" +
             " JOIN account ON account.id = folder.account" +
-            " LEFT JOIN message ON message.folder = folder.id AND NOT message.ui_hide" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = folder.id" +
             " LEFT JOIN rule ON rule.folder = folder.id" +
-            " LEFT JOIN operation ON operation.folder = folder.id" +
             " WHERE account.`synchronize`" +
             " AND ((:type IS NULL AND folder.unified) OR folder.type = :type)" +
             " GROUP BY folder.id")
@@ -133,16 +147,15 @@ public interface DaoFolder {
             ", account.name AS accountName, account.category AS accountCategory, account.color AS accountColor" +
             ", account.state AS accountState, account.error AS accountError" +
             ", COUNT(DISTINCT CASE WHEN rule.enabled THEN rule.id ELSE NULL END) rules" +
-            ", COUNT(DISTINCT message.id) AS messages" +
-            ", COUNT(DISTINCT CASE WHEN message.content = 1 THEN message.id ELSE NULL END) AS content" +
-            ", COUNT(DISTINCT CASE WHEN NOT message.ui_seen THEN message.id ELSE NULL END) AS unseen" +
-            ", COUNT(DISTINCT CASE WHEN message.ui_flagged THEN message.id ELSE NULL END) AS flagged" +
-            ", COUNT(DISTINCT CASE WHEN operation.state = 'executing' THEN operation.id ELSE NULL END) AS executing" +
+            ", IFNULL(counter.messages, 0) AS messages" +
+            ", IFNULL(counter.content, 0) AS content" +
+            ", IFNULL(counter.unseen, 0) AS unseen" +
+            ", IFNULL(counter.flagged, 0) AS flagged" +
+            ", IFNULL(counter.executing, 0) AS executing" +
             " FROM folder" +
             " LEFT JOIN account ON account.id = folder.account" +
-            " LEFT JOIN message ON message.folder = folder.id AND NOT message.ui_hide" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = folder.id" +
             " LEFT JOIN rule ON rule.folder = folder.id" +
-            " LEFT JOIN operation ON operation.folder = folder.id" +
             " WHERE folder.id = :id" +
             " GROUP BY folder.id")
     LiveData<TupleFolderEx> liveFolderEx(long id);
@@ -182,13 +195,13 @@ public interface DaoFolder {
 
     @Query("SELECT folder.type, folder.unified" +
             ", COUNT(DISTINCT folder.id) AS folders" +
-            ", COUNT(message.id) AS messages" +
-            ", SUM(CASE WHEN NOT message.ui_seen THEN 1 ELSE 0 END) AS unseen" +
+            ", SUM(IFNULL(counter.messages, 0)) AS messages" +
+            ", SUM(IFNULL(counter.unseen, 0)) AS unseen" +
             ", CASE WHEN folder.account IS NULL THEN folder.sync_state ELSE NULL END AS sync_state" +
             ", folder.color, COUNT (DISTINCT folder.color) AS colorCount" +
             " FROM folder" +
             " LEFT JOIN account ON account.id = folder.account" +
-            " LEFT JOIN message ON message.folder = folder.id AND NOT message.ui_hide" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = folder.id" +
             " WHERE (account.id IS NULL OR account.synchronize)" +
             " AND ((folder.type <> '" + EntityFolder.SYSTEM + "'" +
             " AND folder.type <> '" + EntityFolder.USER + "')" +
@@ -380,6 +393,10 @@ public interface DaoFolder {
     @Query("UPDATE folder SET modseq = :modseq WHERE id = :id AND NOT (modseq IS :modseq)")
     int setFolderModSeq(long id, Long modseq);
 
+    @Query("UPDATE folder SET uidnext = :uidnext, sync_count = :sync_count" +
+            " WHERE id = :id AND NOT (uidnext IS :uidnext AND sync_count IS :sync_count)")
+    int setFolderUidNext(long id, Long uidnext, Integer sync_count);
+
     @Query("UPDATE folder SET last_sync = :last_sync WHERE id = :id AND NOT (last_sync IS :last_sync)")
     int setFolderLastSync(long id, long last_sync);
 
@@ -436,4 +453,20 @@ public interface DaoFolder {
 
     @Query("DELETE FROM folder WHERE account = :account AND name = :name")
     void deleteFolder(long account, String name);
+
+    @Query("SELECT actual.folder FROM (" + COUNTERS + ") AS actual" +
+            " LEFT JOIN folder_counter AS counter ON counter.folder = actual.folder" +
+            " WHERE counter.folder IS NULL" +
+            " OR counter.messages <> actual.messages" +
+            " OR counter.content <> actual.content" +
+            " OR counter.unseen <> actual.unseen" +
+            " OR counter.flagged <> actual.flagged" +
+            " OR counter.executing <> actual.executing")
+    List<Long> checkCounters();
+
+    @Query(REBUILD_COUNTERS)
+    void rebuildCounters();
+
+    @Query("DELETE FROM folder_counter WHERE folder NOT IN (SELECT id FROM folder)")
+    int deleteOrphanCounters();
 }
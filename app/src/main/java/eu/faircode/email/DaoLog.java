@@ -44,8 +44,6 @@ public interface DaoLog {
     @Insert
     long insertLog(EntityLog log);
 
-    @Query("DELETE FROM log" +
-            " WHERE id IN (SELECT id FROM log" +
-            " WHERE time < :before ORDER BY time LIMIT :limit)")
-    int deleteLogs(long before, int limit);
+    @Query("DELETE FROM log WHERE time < :before")
+    int deleteLogs(long before);
 }
@@ -123,6 +123,57 @@ public interface DaoMessage {
             boolean found,
             boolean debug);
 
+    // Unified inbox from thread_summary
+    // Same as pagedUnified with type=null, threading=true, found=false, debug=false,
+    // filter_unknown=false and filter_language=null
+    @Transaction
+    @SuppressWarnings(RoomWarnings.CURSOR_MISMATCH)
+    @Query("SELECT message.*" +
+            ", account.pop AS accountProtocol, account.name AS accountName, account.category AS accountCategory, COALESCE(identity.color, folder.color, account.color) AS accountColor" +
+            ", account.notify AS accountNotify, account.summary AS accountSummary, account.leave_deleted AS accountLeaveDeleted, account.auto_seen AS accountAutoSeen" +
+            ", folder.name AS folderName, folder.color AS folderColor, folder.display AS folderDisplay, folder.type AS folderType, NULL AS folderInheritedType, folder.unified AS folderUnified, folder.read_only AS folderReadOnly" +
+            ", IFNULL(identity.display, identity.name) AS identityName, identity.email AS identityEmail, identity.color AS identityColor, identity.synchronize AS identitySynchronize" +
+            ", summary.senders AS senders" +
+            ", summary.recipients AS recipients" +
+            ", summary.count AS count" +
+            ", summary.unseen AS unseen" +
+            ", summary.unflagged AS unflagged" +
+            ", summary.drafts AS drafts" +
+            ", summary.visible AS visible" +
+            ", summary.visible_unseen AS visible_unseen" +
+            ", summary.attachments AS totalAttachments" +
+            ", summary.total AS totalSize" +
+            ", message.priority AS ui_priority" +
+            ", message.importance AS ui_importance" +
+            " FROM thread_summary AS summary" +
+            " JOIN message ON message.id = summary.message" +
+            " JOIN account_view AS account ON account.id = message.account" +
+            " LEFT JOIN identity_view AS identity ON identity.id = message.identity" +
+            " JOIN folder_view AS folder ON folder.id = message.folder" +
+            " WHERE account.`synchronize`" +
+            " AND (NOT :filter_seen OR summary.unseen > 0)" +
+            " AND (NOT :filter_unflagged OR summary.count - summary.unflagged > 0)" +
+            " AND (NOT :filter_snoozed OR message.ui_snoozed IS NULL OR " + is_drafts + ")" +
+            " AND (NOT :filter_deleted OR NOT message.ui_deleted)" +
+            " ORDER BY -IFNULL(message.importance, 1)" +
+            ", CASE WHEN :group_category THEN account.category ELSE '' END COLLATE NOCASE" +
+            ", CASE" +
+            "   WHEN 'unread' = :sort THEN summary.unseen = 0" +
+            "   WHEN 'starred' = :sort THEN summary.count - summary.unflagged = 0" +
+            "   WHEN 'priority' = :sort THEN -IFNULL(message.priority, 1)" +
+            "   WHEN 'sender' = :sort THEN LOWER(message.sender)" +
+            "   WHEN 'subject' = :sort THEN LOWER(message.subject)" +
+            "   WHEN 'size' = :sort THEN -summary.total" +
+            "   WHEN 'attachments' = :sort THEN -summary.attachments" +
+            "   WHEN 'snoozed' = :sort THEN summary.snoozed = 0" +
+            "   ELSE 0" +
+            "  END" +
+            ", CASE WHEN :ascending THEN message.received ELSE -message.received END")
+    DataSource.Factory<Integer, TupleMessageEx> pagedUnifiedSummary(
+            boolean group_category,
+            String sort, boolean ascending,
+            boolean filter_seen, boolean filter_unflagged, boolean filter_snoozed, boolean filter_deleted);
+
     @Transaction
     @SuppressWarnings(RoomWarnings.CURSOR_MISMATCH)
     @Query("SELECT message.*" +
@@ -311,6 +362,18 @@ public interface DaoMessage {
             " WHERE id = :id")
     EntityMessage getMessage(long id);
 
+    @Query("SELECT *" +
+            " FROM message" +
+            " WHERE id IN (:ids)")
+    List<EntityMessage> getMessages(List<Long> ids);
+
+    @Query("SELECT *" +
+            " FROM message" +
+            " WHERE id IN (:ids)" +
+            " AND NOT ui_hide" +
+            " AND NOT folder IN (:exclude)")
+    List<EntityMessage> getMessages(List<Long> ids, long[] exclude);
+
     @Query("SELECT *" +
             " FROM message" +
             " WHERE folder = :folder" +
@@ -637,6 +700,11 @@ public interface DaoMessage {
             " ORDER BY uid")
     List<Long> getUids(long folder, Long received);
 
+    @Query("SELECT id, uid, ui_hide FROM message" +
+            " WHERE folder = :folder" +
+            " AND NOT uid IS NULL")
+    List<TupleUid> getMessageUids(long folder);
+
     @Query("SELECT * FROM message" +
             " WHERE folder = :folder" +
             " AND (:received IS NULL OR received >= :received)" +
@@ -713,6 +781,12 @@ public interface DaoMessage {
             " AND (:since IS NULL OR received >= :since)")
     int updateMessageThread(long account, String old, String thread, Long since);
 
+    @Query("UPDATE message SET thread = :thread" +
+            " WHERE account = :account" +
+            " AND thread IN (:olds) AND thread <> :thread" +
+            " AND (:since IS NULL OR received >= :since)")
+    int updateMessageThreads(long account, List<String> olds, String thread, Long since);
+
     @Query("UPDATE message SET uid = :uid WHERE id = :id AND NOT (uid IS :uid)")
     int setMessageUid(long id, Long uid);
 
@@ -741,6 +815,9 @@ public interface DaoMessage {
     @Query("UPDATE message SET fts = :fts WHERE id = :id AND NOT (fts IS :fts)")
     int setMessageFts(long id, boolean fts);
 
+    @Query("UPDATE message SET fts = :fts WHERE id IN (:ids) AND NOT (fts IS :fts)")
+    int setMessageFts(List<Long> ids, boolean fts);
+
     @Query("UPDATE message SET received = :received WHERE id = :id AND NOT (received IS :received)")
     int setMessageReceived(long id, long received);
 
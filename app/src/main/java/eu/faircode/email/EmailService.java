@@ -47,6 +47,7 @@ import com.sun.mail.util.SocketConnectException;
 import com.sun.mail.util.TraceOutputStream;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -283,6 +284,9 @@ public class EmailService implements AutoCloseable {
 
             properties.put("mail." + protocol + ".throwsearchexception", "true");
             properties.put("mail." + protocol + ".fetchsize", Integer.toString(FETCH_SIZE));
+            // Literals larger than a partial fetch chunk are written to disk instead of kept in memory
+            properties.put("mail." + protocol + ".spool.dir", getSpoolDir(context).getAbsolutePath());
+            properties.put("mail." + protocol + ".spool.threshold", Integer.toString(FETCH_SIZE));
             properties.put("mail." + protocol + ".peek", "true");
             properties.put("mail." + protocol + ".appendbuffersize", Integer.toString(APPEND_BUFFER_SIZE));
 
@@ -302,6 +306,10 @@ public class EmailService implements AutoCloseable {
             throw new NoSuchProviderException(protocol);
     }
 
+    static File getSpoolDir(Context context) {
+        return Helper.ensureExists(new File(context.getCacheDir(), "spool"));
+    }
+
     void setPartialFetch(boolean enabled) {
         properties.put("mail." + protocol + ".partialfetch", Boolean.toString(enabled));
     }
@@ -328,6 +336,11 @@ public class EmailService implements AutoCloseable {
         properties.put("mail." + protocol + ".allow8bitmime", Boolean.toString(value));
     }
 
+    void setUseSocketChannels(boolean enabled) {
+        // Required for the IdleManager, not used for unencrypted connections (custom socket factory)
+        properties.put("mail." + protocol + ".usesocketchannels", Boolean.toString(enabled));
+    }
+
     void setRestartIdleInterval(int seconds) {
         properties.put("mail." + protocol + ".restartidleinterval", Integer.toString(seconds));
     }
@@ -410,6 +423,7 @@ public class EmailService implements AutoCloseable {
                     EntityLog.log(context, EntityLog.Type.Network, "Binding to" +
                             " active=" + active);
                     properties.put("fairemail.factory", active.getSocketFactory());
+                    properties.remove("mail." + protocol + ".usesocketchannels");
                 }
             } catch (Throwable ex) {
                 Log.e(ex);
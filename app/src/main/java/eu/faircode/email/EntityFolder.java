@@ -71,6 +71,8 @@ public class EntityFolder extends EntityOrder implements Serializable {
     public Long parent;
     public Long uidv; // UIDValidity
     public Long modseq;
+    public Long uidnext; // UIDNEXT at the last sync
+    public Integer sync_count; // messages on server at the last sync
     public String namespace;
     public Character separator;
     @NonNull
@@ -0,0 +1,50 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+// Maintained by triggers, see DB.createTriggers
+@Entity(
+        tableName = EntityFolderCounter.TABLE_NAME,
+        foreignKeys = {
+        },
+        indices = {
+        }
+)
+public class EntityFolderCounter {
+    static final String TABLE_NAME = "folder_counter";
+
+    @PrimaryKey
+    @NonNull
+    public Long folder;
+    @NonNull
+    public Integer messages = 0; // not hidden
+    @NonNull
+    public Integer content = 0;
+    @NonNull
+    public Integer unseen = 0;
+    @NonNull
+    public Integer flagged = 0;
+    @NonNull
+    public Integer executing = 0; // operations
+}
@@ -32,6 +32,13 @@ import androidx.room.PrimaryKey;
 
 import java.util.Date;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 @Entity(
         tableName = EntityLog.TABLE_NAME,
@@ -44,13 +51,27 @@ import java.util.Objects;
 public class EntityLog {
     static final String TABLE_NAME = "log";
 
+    private static final int LOG_RING_SIZE = 1024; // power of two
+    private static final int LOG_FLUSH_BATCH = 100; // entries
+    private static final long LOG_FLUSH_INTERVAL = 500L; // milliseconds
+    private static final long LOG_SPACE_INTERVAL = 10 * 1000L; // milliseconds
+    private static final long LOG_CLEANUP_INTERVAL = 3600 * 1000L; // milliseconds
+    private static final long LOG_KEEP_DURATION = 12 * 3600 * 1000L; // milliseconds
+
     private static boolean ok = true;
-    private static long count = 0;
+    private static long last_space = 0;
     private static Long last_cleanup = null;
+    private static volatile Thread flusher = null;
 
-    private static final long LOG_CLEANUP_INTERVAL = 3600 * 1000L; // milliseconds
-    private static final long LOG_KEEP_DURATION = 12 * 3600 * 1000L; // milliseconds
-    private static final int LOG_DELETE_BATCH_SIZE = 50;
+    // Multiple producers, single consumer ring buffer
+    private static final AtomicReferenceArray<EntityLog> ring = new AtomicReferenceArray<>(LOG_RING_SIZE);
+    private static final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private static final AtomicLong head = new AtomicLong(); // next slot to flush
+    private static final AtomicBoolean scheduled = new AtomicBoolean();
+    private static final AtomicInteger dropped = new AtomicInteger();
+
+    private static final ExecutorService executor =
+            Helper.getBackgroundExecutor(1, "log");
 
     @PrimaryKey(autoGenerate = true)
     public Long id;
@@ -134,47 +155,149 @@ public class EntityLog {
         entry.message = message;
         entry.data = data;
 
-        final DB db = DB.getInstance(context);
-        final Context acontext = context.getApplicationContext();
+        enqueue(context.getApplicationContext(), entry);
+    }
+
+    private static void enqueue(final Context context, EntityLog entry) {
+        long slot;
+        while (true) {
+            slot = tail.get();
+            if (slot - head.get() >= LOG_RING_SIZE) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (tail.compareAndSet(slot, slot + 1))
+                break;
+        }
+        ring.set((int) (slot & (LOG_RING_SIZE - 1)), entry);
+
+        if (scheduled.compareAndSet(false, true))
+            schedule(context);
+        else if (slot - head.get() + 1 >= LOG_FLUSH_BATCH) {
+            Thread t = flusher;
+            if (t != null)
+                LockSupport.unpark(t);
+        }
+    }
 
-        Helper.getSerialExecutor().submit(new Runnable() {
+    private static void schedule(final Context context) {
+        executor.submit(new Runnable() {
             @Override
             public void run() {
-                // Check available storage space
-                if (!ok || (++count % LOG_DELETE_BATCH_SIZE) == 0) {
-                    long cake = Helper.getAvailableStorageSpace();
-                    boolean wasOk = ok;
-                    ok = (cake > Helper.MIN_REQUIRED_SPACE);
-                    if (!ok)
-                        if (wasOk) {
-                            entry.type = Type.General;
-                            entry.account = null;
-                            entry.folder = null;
-                            entry.message = null;
-                            entry.data = "Insufficient storage space=" +
-                                    Helper.humanReadableByteCount(cake) + "/" +
-                                    Helper.humanReadableByteCount(Helper.MIN_REQUIRED_SPACE);
-                        } else
-                            return;
-                }
+                flush(context);
+            }
+        });
+    }
 
-                try {
-                    db.beginTransaction();
-                    db.log().insertLog(entry);
-                    db.setTransactionSuccessful();
-                } catch (Throwable ex) {
-                    Log.e(ex);
-                } finally {
-                    db.endTransaction();
-                }
+    private static void flush(Context context) {
+        flusher = Thread.currentThread();
+        try {
+            // Group commit after an interval or when a batch is available
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOG_FLUSH_INTERVAL);
+            while (tail.get() - head.get() < LOG_FLUSH_BATCH) {
+                long wait = until - System.nanoTime();
+                if (wait <= 0)
+                    break;
+                LockSupport.parkNanos(wait);
+            }
 
-                long now = new Date().getTime();
-                if (last_cleanup == null || last_cleanup + LOG_CLEANUP_INTERVAL < now) {
-                    last_cleanup = now;
-                    cleanup(acontext, now - LOG_KEEP_DURATION);
+            write(context);
+        } catch (Throwable ex) {
+            Log.e(ex);
+        } finally {
+            flusher = null;
+            scheduled.set(false);
+        }
+
+        // Entries added while clearing the scheduled flag
+        if (tail.get() != head.get() && scheduled.compareAndSet(false, true))
+            schedule(context);
+    }
+
+    private static void write(Context context) {
+        long now = new Date().getTime();
+
+        // Check available storage space
+        if (!ok || last_space + LOG_SPACE_INTERVAL < now) {
+            last_space = now;
+            long cake = Helper.getAvailableStorageSpace();
+            boolean wasOk = ok;
+            ok = (cake > Helper.MIN_REQUIRED_SPACE);
+            if (!ok) {
+                int skipped = drain(null);
+                if (wasOk) {
+                    EntityLog entry = new EntityLog();
+                    entry.time = now;
+                    entry.type = Type.General;
+                    entry.thread = Thread.currentThread().getId();
+                    entry.data = "Insufficient storage space=" +
+                            Helper.humanReadableByteCount(cake) + "/" +
+                            Helper.humanReadableByteCount(Helper.MIN_REQUIRED_SPACE) +
+                            " skipped=" + skipped;
+                    insert(context, entry);
                 }
+                return;
             }
-        });
+        }
+
+        DB db = DB.getInstance(context);
+        try {
+            db.beginTransaction();
+
+            int lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                EntityLog entry = new EntityLog();
+                entry.time = now;
+                entry.type = Type.General;
+                entry.thread = Thread.currentThread().getId();
+                entry.data = "Log entries dropped=" + lost;
+                db.log().insertLog(entry);
+            }
+
+            drain(db);
+
+            db.setTransactionSuccessful();
+        } catch (Throwable ex) {
+            Log.e(ex);
+        } finally {
+            db.endTransaction();
+        }
+
+        if (last_cleanup == null || last_cleanup + LOG_CLEANUP_INTERVAL < now) {
+            last_cleanup = now;
+            cleanup(context, now - LOG_KEEP_DURATION);
+        }
+    }
+
+    private static int drain(DB db) {
+        int count = 0;
+        long h = head.get();
+        while (h < tail.get()) {
+            int index = (int) (h & (LOG_RING_SIZE - 1));
+            EntityLog entry = ring.get(index);
+            if (entry == null)
+                break; // claimed but not published yet
+            ring.set(index, null);
+            head.set(++h);
+
+            if (db != null)
+                db.log().insertLog(entry);
+            count++;
+        }
+        return count;
+    }
+
+    private static void insert(Context context, EntityLog entry) {
+        DB db = DB.getInstance(context);
+        try {
+            db.beginTransaction();
+            db.log().insertLog(entry);
+            db.setTransactionSuccessful();
+        } catch (Throwable ex) {
+            Log.e(ex);
+        } finally {
+            db.endTransaction();
+        }
     }
 
     static void clear(final Context context) {
@@ -189,21 +312,13 @@ public class EntityLog {
 
     private static void cleanup(final Context context, final long before) {
         Log.i("Log cleanup interval=" + LOG_CLEANUP_INTERVAL);
-        DB db = DB.getInstance(context);
-        while (true)
-            try {
-                db.beginTransaction();
-                int logs = db.log().deleteLogs(before, LOG_DELETE_BATCH_SIZE);
-                db.setTransactionSuccessful();
-                Log.i("Cleanup logs=" + logs + " before=" + new Date(before));
-                if (logs < LOG_DELETE_BATCH_SIZE)
-                    break;
-            } catch (Throwable ex) {
-                Log.e(ex);
-                break;
-            } finally {
-                db.endTransaction();
-            }
+        try {
+            DB db = DB.getInstance(context);
+            int logs = db.log().deleteLogs(before);
+            Log.i("Cleanup logs=" + logs + " before=" + new Date(before));
+        } catch (Throwable ex) {
+            Log.e(ex);
+        }
     }
 
     Integer getColor(Context context) {
@@ -56,10 +56,14 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
@@ -136,6 +140,23 @@ public class EntityRule {
 
     private static final String JSOUP_PREFIX = "jsoup:";
     private static final long SEND_DELAY = 5000L; // milliseconds
+    private static final int MAX_COMPILED = 500;
+    private static final long SLOW_RULE = 100L; // milliseconds
+
+    // Keyed by content, so changed rules will be compiled again
+    private static final Map<String, JSONObject> conditions = new LinkedHashMap<String, JSONObject>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest) {
+            return (size() > MAX_COMPILED);
+        }
+    };
+
+    private static final Map<String, Needle> needles = new LinkedHashMap<String, Needle>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Needle> eldest) {
+            return (size() > MAX_COMPILED);
+        }
+    };
 
     static boolean needsHeaders(EntityMessage message, List<EntityRule> rules) {
         return needs(rules, "header");
@@ -150,7 +171,7 @@ public class EntityRule {
     private static boolean needs(List<EntityRule> rules, String what) {
         for (EntityRule rule : rules)
             try {
-                JSONObject jcondition = new JSONObject(rule.condition);
+                JSONObject jcondition = rule.getCondition();
                 if (jcondition.has(what)) {
                     if ("header".equals(what)) {
                         JSONObject jheader = jcondition.getJSONObject("header");
@@ -173,29 +194,76 @@ public class EntityRule {
             throws JSONException, MessagingException {
         int applied = 0;
 
-        List<String> stopped = new ArrayList<>();
+        Set<String> stopped = new HashSet<>();
         for (EntityRule rule : rules) {
             if (rule.group != null && stopped.contains(rule.group))
                 continue;
-            if (rule.matches(context, message, headers, html)) {
+
+            long start = System.nanoTime();
+            boolean matched = rule.matches(context, message, headers, html);
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            if (elapsed > SLOW_RULE)
+                EntityLog.log(context, EntityLog.Type.Rules, message,
+                        "Rule=" + rule.name + "@" + rule.order + " slow elapsed=" + elapsed + " ms");
+
+            if (matched) {
                 if (rule.execute(context, message))
                     applied++;
                 if (rule.stop)
                     if (rule.group == null)
                         break;
-                    else {
-                        if (!stopped.contains(rule.group))
-                            stopped.add(rule.group);
-                    }
+                    else
+                        stopped.add(rule.group);
             }
         }
 
         return applied;
     }
 
+    private JSONObject getCondition() throws JSONException {
+        synchronized (conditions) {
+            JSONObject jcondition = conditions.get(condition);
+            if (jcondition == null) {
+                jcondition = new JSONObject(condition);
+                conditions.put(condition, jcondition);
+            }
+            return jcondition;
+        }
+    }
+
+    private static Needle getNeedle(String value, boolean regex) {
+        String key = (regex ? "r:" : "s:") + value;
+        synchronized (needles) {
+            Needle needle = needles.get(key);
+            if (needle == null) {
+                needle = new Needle(value, regex);
+                needles.put(key, needle);
+            }
+            return needle;
+        }
+    }
+
+    private static class Needle {
+        private final Pattern pattern;
+        private final String lower;
+
+        Needle(String value, boolean regex) {
+            this.pattern = (regex ? Pattern.compile(value, Pattern.DOTALL) : null);
+            this.lower = (regex ? null : value.trim().toLowerCase());
+        }
+
+        boolean matches(String haystack) {
+            if (pattern == null)
+                return haystack.toLowerCase().contains(lower);
+            else
+                return pattern.matcher(haystack).matches();
+        }
+    }
+
     boolean matches(Context context, EntityMessage message, List<Header> headers, String html) throws MessagingException {
         try {
-            JSONObject jcondition = new JSONObject(condition);
+            // Parsed conditions are shared and should not be modified
+            JSONObject jcondition = getCondition();
 
             // general
             if (this.daily) {
@@ -537,11 +605,7 @@ public class EntityRule {
     private boolean matches(Context context, EntityMessage message, String needle, String haystack, boolean regex) {
         boolean matched = false;
         if (needle != null && haystack != null)
-            if (regex) {
-                Pattern pattern = Pattern.compile(needle, Pattern.DOTALL);
-                matched = pattern.matcher(haystack).matches();
-            } else
-                matched = haystack.toLowerCase().contains(needle.trim().toLowerCase());
+            matched = getNeedle(needle, regex).matches(haystack);
 
         if (matched)
             EntityLog.log(context, EntityLog.Type.Rules, message,
@@ -0,0 +1,111 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+// Threads of the unified inbox, maintained by triggers, see DB.createTriggers
+// The aggregates are the same as DaoMessage.pagedUnified computes for non hidden messages
+@Entity(
+        tableName = EntityThreadSummary.TABLE_NAME,
+        primaryKeys = {"account", "thread"},
+        foreignKeys = {
+        },
+        indices = {
+                @Index(value = {"message"})
+        }
+)
+public class EntityThreadSummary {
+    static final String TABLE_NAME = "thread_summary";
+
+    @NonNull
+    public Long account;
+    @NonNull
+    public String thread;
+    @NonNull
+    public Long message; // latest message in a unified folder
+    @NonNull
+    public Long received;
+    @NonNull
+    public Integer count;
+    @NonNull
+    public Integer unseen;
+    @NonNull
+    public Integer unflagged;
+    @NonNull
+    public Integer drafts;
+    @NonNull
+    public Integer visible;
+    @NonNull
+    public Integer visible_unseen;
+    public Integer attachments;
+    public Long total;
+    @NonNull
+    public Integer snoozed;
+    public String senders;
+    public String recipients;
+
+    static String getDeleteSql(String account, String thread) {
+        return "DELETE FROM thread_summary" +
+                " WHERE account = " + account + " AND thread = " + thread;
+    }
+
+    static String getSummarizeSql(String where) {
+        return "INSERT OR REPLACE INTO thread_summary" +
+                " (account, thread, message, received, count, unseen, unflagged, drafts" +
+                ", visible, visible_unseen, attachments, total, snoozed, senders, recipients)" +
+                " SELECT message.account, message.thread, message.id" +
+                ", MAX(CASE WHEN folder.unified THEN message.received ELSE 0 END)" + // selects message.id
+                ", COUNT(message.id)" +
+                ", SUM(1 - message.ui_seen)" +
+                ", SUM(1 - message.ui_flagged)" +
+                ", SUM(folder.type = '" + EntityFolder.DRAFTS + "')" +
+                ", COUNT(DISTINCT" +
+                "   CASE WHEN NOT message.hash IS NULL THEN message.hash" +
+                "   WHEN NOT message.msgid IS NULL THEN message.msgid" +
+                "   ELSE message.id END)" +
+                ", COUNT(DISTINCT" +
+                "   CASE WHEN message.ui_seen THEN NULL" +
+                "   WHEN NOT message.hash IS NULL THEN message.hash" +
+                "   WHEN NOT message.msgid IS NULL THEN message.msgid" +
+                "   ELSE message.id END)" +
+                ", SUM(message.attachments)" +
+                ", SUM(message.total)" +
+                ", SUM(CASE WHEN message.ui_snoozed IS NULL THEN 0 ELSE 1 END)" +
+                ", '[' || group_concat(message.`from`, ',') || ']'" +
+                ", '[' || group_concat(message.`to`, ',') || ']'" +
+                " FROM (SELECT * FROM message" +
+                "  WHERE (" + where + ")" +
+                "  AND NOT message.thread IS NULL" +
+                "  AND NOT message.ui_hide" +
+                "  ORDER BY received DESC) AS message" + // group_concat
+                " JOIN folder ON folder.id = message.folder" +
+                " GROUP BY message.account, message.thread" +
+                " HAVING SUM(folder.unified) > 0";
+    }
+
+    static void rebuild(SupportSQLiteDatabase db) {
+        db.execSQL("DELETE FROM thread_summary");
+        db.execSQL(getSummarizeSql("1"));
+    }
+}
@@ -132,6 +132,7 @@ import androidx.lifecycle.Observer;
 import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.room.InvalidationTracker;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.bottomnavigation.LabelVisibilityMode;
@@ -6139,7 +6140,8 @@ public class FragmentCompose extends FragmentBase {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getContext());
             final boolean plain_only = prefs.getBoolean("plain_only", false);
 
-            db.message().liveMessage(data.draft.id).observe(getViewLifecycleOwner(), new Observer<EntityMessage>() {
+            InvalidationTracker.scope(db.message().liveMessage(data.draft.id),
+                    InvalidationTracker.SCOPE_ROW, data.draft.id).observe(getViewLifecycleOwner(), new Observer<EntityMessage>() {
                 @Override
                 public void onChanged(EntityMessage draft) {
                     // Draft was deleted
@@ -6214,7 +6216,8 @@ public class FragmentCompose extends FragmentBase {
 
             boolean threading = prefs.getBoolean("threading", true);
             if (threading)
-                db.message().liveUnreadThread(data.draft.account, data.draft.thread).observe(getViewLifecycleOwner(), new Observer<List<EntityMessage>>() {
+                InvalidationTracker.scope(db.message().liveUnreadThread(data.draft.account, data.draft.thread),
+                        InvalidationTracker.SCOPE_ACCOUNT, data.draft.account).observe(getViewLifecycleOwner(), new Observer<List<EntityMessage>>() {
                     private int lastDiff = 0;
                     private List<EntityMessage> base = null;
 
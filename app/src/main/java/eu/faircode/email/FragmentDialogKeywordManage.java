@@ -34,6 +34,7 @@ import androidx.lifecycle.Observer;
 import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.room.InvalidationTracker;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
@@ -77,7 +78,8 @@ public class FragmentDialogKeywordManage extends FragmentDialogBase {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
         DB db = DB.getInstance(context);
-        db.message().liveMessageKeywords(id).observe(getViewLifecycleOwner(), new Observer<TupleKeyword.Persisted>() {
+        InvalidationTracker.scope(db.message().liveMessageKeywords(id),
+                InvalidationTracker.SCOPE_ROW, id).observe(getViewLifecycleOwner(), new Observer<TupleKeyword.Persisted>() {
             @Override
             public void onChanged(TupleKeyword.Persisted data) {
                 if (data == null)
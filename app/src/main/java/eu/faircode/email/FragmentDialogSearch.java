@@ -157,11 +157,20 @@ public class FragmentDialogSearch extends FragmentDialogBase {
                     return cursor;
 
                 if (cbSearchIndex.isEnabled() && cbSearchIndex.isChecked()) {
-                    SQLiteDatabase db = Fts4DbHelper.getInstance(context);
-                    List<String> suggestions = Fts4DbHelper.getSuggestions(
-                            db,
-                            typed + "%",
-                            MAX_SUGGESTIONS);
+                    List<String> suggestions;
+                    if (Fts5DbHelper.isEnabled(context)) {
+                        SQLiteDatabase db = Fts5DbHelper.getInstance(context);
+                        suggestions = Fts5DbHelper.getSuggestions(
+                                db,
+                                typed + "%",
+                                MAX_SUGGESTIONS);
+                    } else {
+                        SQLiteDatabase db = Fts4DbHelper.getInstance(context);
+                        suggestions = Fts4DbHelper.getSuggestions(
+                                db,
+                                typed + "%",
+                                MAX_SUGGESTIONS);
+                    }
                     for (int i = 0; i < suggestions.size(); i++)
                         cursor.addRow(new Object[]{i + 1, suggestions.get(i)});
                     return cursor;
@@ -50,6 +50,7 @@ import androidx.appcompat.widget.SwitchCompat;
 import androidx.constraintlayout.widget.Group;
 import androidx.lifecycle.Observer;
 import androidx.preference.PreferenceManager;
+import androidx.room.InvalidationTracker;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -497,7 +498,8 @@ public class FragmentDialogSend extends FragmentDialogBase {
         });
 
         DB db = DB.getInstance(context);
-        db.message().liveMessage(id).observe(getViewLifecycleOwner(), new Observer<TupleMessageEx>() {
+        InvalidationTracker.scope(db.message().liveMessage(id),
+                InvalidationTracker.SCOPE_ROW, id).observe(getViewLifecycleOwner(), new Observer<TupleMessageEx>() {
             @Override
             public void onChanged(TupleMessageEx draft) {
                 if (draft == null) {
@@ -1051,6 +1051,7 @@ public class FragmentFolders extends FragmentBase {
                         db.message().deleteBrowsedMessages(fid, keep_time);
                     } else {
                         db.message().deleteLocalMessages(fid);
+                        db.folder().setFolderUidNext(fid, null, null);
                         db.folder().setFolderKeywords(fid, DB.Converters.fromStringArray(null));
                     }
 
@@ -143,6 +143,7 @@ import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.room.InvalidationTracker;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
@@ -4979,7 +4980,8 @@ public class FragmentMessages extends FragmentBase
                 break;
 
             case THREAD:
-                db.message().liveThreadStats(account, thread, null, filter_archive).observe(getViewLifecycleOwner(), new Observer<TupleThreadStats>() {
+                InvalidationTracker.scope(db.message().liveThreadStats(account, thread, null, filter_archive),
+                        InvalidationTracker.SCOPE_ACCOUNT, account).observe(getViewLifecycleOwner(), new Observer<TupleThreadStats>() {
                     @Override
                     public void onChanged(TupleThreadStats stats) {
                         if (stats == null)
@@ -4992,7 +4994,8 @@ public class FragmentMessages extends FragmentBase
                             setSubtitle(getString(R.string.title_name_count, stats.accountName, NF.format(unseen)));
                     }
                 });
-                db.message().liveHiddenThread(account, thread).observe(getViewLifecycleOwner(), new Observer<List<Long>>() {
+                InvalidationTracker.scope(db.message().liveHiddenThread(account, thread),
+                        InvalidationTracker.SCOPE_ACCOUNT, account).observe(getViewLifecycleOwner(), new Observer<List<Long>>() {
                     @Override
                     public void onChanged(List<Long> ids) {
                         if (ids != null) {
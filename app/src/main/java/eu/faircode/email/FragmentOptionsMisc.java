@@ -85,9 +85,7 @@ import androidx.work.WorkManager;
 import com.google.android.material.textfield.TextInputLayout;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
@@ -200,6 +198,7 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
     private SwitchCompat swAnalyze;
     private SwitchCompat swAutoVacuum;
     private SwitchCompat swSyncExtra;
+    private SwitchCompat swFts5;
     private TextView tvSqliteCache;
     private SeekBar sbSqliteCache;
     private TextView tvChunkSize;
@@ -226,6 +225,7 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
     private SwitchCompat swKeepAlivePoll;
     private SwitchCompat swEmptyPool;
     private SwitchCompat swIdleDone;
+    private SwitchCompat swIdleManager;
     private SwitchCompat swFastFetch;
     private TextView tvMaxBackoff;
     private SeekBar sbMaxBackOff;
@@ -288,14 +288,14 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
             "watchdog", "experiments", "main_log", "main_log_memory", "protocol", "log_level", "debug", "leak_canary",
             "test1", "test2", "test3", "test4", "test5",
             "emergency_file", "work_manager", // "external_storage",
-            "sqlite_integrity_check", "wal", "sqlite_checkpoints", "sqlite_analyze", "sqlite_auto_vacuum", "sqlite_sync_extra", "sqlite_cache",
+            "sqlite_integrity_check", "wal", "sqlite_checkpoints", "sqlite_analyze", "sqlite_auto_vacuum", "sqlite_sync_extra", "fts5", "sqlite_cache",
             "chunk_size", "thread_range",
             "autoscroll_editor", "undo_manager",
             "browser_zoom", "fake_dark",
             "show_recent",
             "use_modseq", "preamble", "uid_command", "perform_expunge", "uid_expunge",
             "auth_plain", "auth_login", "auth_ntlm", "auth_sasl", "auth_apop", "use_top",
-            "keep_alive_poll", "empty_pool", "idle_done", "fast_fetch",
+            "keep_alive_poll", "empty_pool", "idle_done", "idle_manager", "fast_fetch",
             "max_backoff_power", "logarithmic_backoff",
             "exact_alarms",
             "native_dkim", "native_arc", "native_arc_whitelist",
@@ -447,6 +447,7 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
         swAnalyze = view.findViewById(R.id.swAnalyze);
         swAutoVacuum = view.findViewById(R.id.swAutoVacuum);
         swSyncExtra = view.findViewById(R.id.swSyncExtra);
+        swFts5 = view.findViewById(R.id.swFts5);
         tvSqliteCache = view.findViewById(R.id.tvSqliteCache);
         sbSqliteCache = view.findViewById(R.id.sbSqliteCache);
         ibSqliteCache = view.findViewById(R.id.ibSqliteCache);
@@ -473,6 +474,7 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
         swKeepAlivePoll = view.findViewById(R.id.swKeepAlivePoll);
         swEmptyPool = view.findViewById(R.id.swEmptyPool);
         swIdleDone = view.findViewById(R.id.swIdleDone);
+        swIdleManager = view.findViewById(R.id.swIdleManager);
         swFastFetch = view.findViewById(R.id.swFastFetch);
         tvMaxBackoff = view.findViewById(R.id.tvMaxBackoff);
         sbMaxBackOff = view.findViewById(R.id.sbMaxBackOff);
@@ -593,6 +595,8 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
                                 Fts4DbHelper.delete(context);
                             }
 
+                            Fts5DbHelper.delete(context);
+
                             DB db = DB.getInstance(context);
                             db.message().resetFts();
 
@@ -1519,6 +1523,41 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
             }
         });
 
+        swFts5.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton v, boolean checked) {
+                prefs.edit().putBoolean("fts5", checked).apply();
+
+                Bundle args = new Bundle();
+                args.putBoolean("fts5", checked);
+
+                new SimpleTask<Void>() {
+                    @Override
+                    protected Void onExecute(Context context, Bundle args) {
+                        boolean fts5 = args.getBoolean("fts5");
+
+                        // The index will be rebuilt in the background by the FTS worker
+                        if (fts5)
+                            Fts4DbHelper.delete(context);
+                        else
+                            Fts5DbHelper.delete(context);
+
+                        DB db = DB.getInstance(context);
+                        db.message().resetFts();
+
+                        WorkerFts.init(context, true);
+
+                        return null;
+                    }
+
+                    @Override
+                    protected void onException(Bundle args, Throwable ex) {
+                        Log.unexpectedError(getParentFragmentManager(), ex);
+                    }
+                }.execute(FragmentOptionsMisc.this, args, "fts5:switch");
+            }
+        });
+
         sbSqliteCache.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
@@ -1722,6 +1761,13 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
             }
         });
 
+        swIdleManager.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
+                prefs.edit().putBoolean("idle_manager", checked).apply();
+            }
+        });
+
         swFastFetch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
@@ -2158,7 +2204,9 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
                     tvFtsIndexed.setText(getString(R.string.title_advanced_fts_indexed,
                             stats.fts,
                             stats.total,
-                            Helper.humanReadableByteCount(Fts4DbHelper.size(tvFtsIndexed.getContext()))));
+                            Helper.humanReadableByteCount(Fts5DbHelper.isEnabled(tvFtsIndexed.getContext())
+                                    ? Fts5DbHelper.size(tvFtsIndexed.getContext())
+                                    : Fts4DbHelper.size(tvFtsIndexed.getContext()))));
                 last = stats;
             }
         });
@@ -2501,6 +2549,8 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
             swAnalyze.setChecked(prefs.getBoolean("sqlite_analyze", true));
             swAutoVacuum.setChecked(prefs.getBoolean("sqlite_auto_vacuum", false));
             swSyncExtra.setChecked(prefs.getBoolean("sqlite_sync_extra", true));
+            swFts5.setChecked(prefs.getBoolean("fts5", false));
+            swFts5.setEnabled(Fts5DbHelper.isAvailable());
 
             int sqlite_cache = prefs.getInt("sqlite_cache", DB.DEFAULT_CACHE_SIZE);
             Integer cache_size = DB.getCacheSizeKb(getContext());
@@ -2539,6 +2589,7 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
             swKeepAlivePoll.setChecked(prefs.getBoolean("keep_alive_poll", false));
             swEmptyPool.setChecked(prefs.getBoolean("empty_pool", true));
             swIdleDone.setChecked(prefs.getBoolean("idle_done", true));
+            swIdleManager.setChecked(prefs.getBoolean("idle_manager", false));
             swFastFetch.setChecked(prefs.getBoolean("fast_fetch", false));
 
             int max_backoff_power = prefs.getInt("max_backoff_power", ServiceSynchronize.DEFAULT_BACKOFF_POWER - 3);
@@ -2808,11 +2859,8 @@ public class FragmentOptionsMisc extends FragmentBase implements SharedPreferenc
                 Uri uri = args.getParcelable("uri");
 
                 ContentResolver resolver = context.getContentResolver();
-                File file = MessageClassifier.getFile(context, false);
                 try (OutputStream os = resolver.openOutputStream(uri)) {
-                    try (InputStream is = new FileInputStream(file)) {
-                        Helper.copy(is, os);
-                    }
+                    MessageClassifier.export(context, os);
                 }
 
                 return null;
@@ -22,11 +22,14 @@ package eu.faircode.email;
 import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.text.TextUtils;
 
+import androidx.preference.PreferenceManager;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +43,7 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
 
     @SuppressLint("StaticFieldLeak")
     private static Fts5DbHelper instance = null;
+    private static Boolean available = null;
 
     private static final int DATABASE_VERSION = 5;
     private static final String DATABASE_NAME = "fts.db";
@@ -50,11 +54,34 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
     }
 
     static SQLiteDatabase getInstance(Context context) {
-        if (instance == null)
+        boolean has = context.getDatabasePath(DATABASE_NAME).exists();
+        if (instance == null || !has) {
+            if (!has)
+                DB.getInstance(context).message().resetFts();
             instance = new Fts5DbHelper(context);
+        }
         return instance.getWritableDatabase();
     }
 
+    static boolean isEnabled(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean fts5 = prefs.getBoolean("fts5", false);
+        return (fts5 && isAvailable());
+    }
+
+    static synchronized boolean isAvailable() {
+        // Not all SQLite builds include the FTS5 module
+        if (available == null)
+            try (SQLiteDatabase db = SQLiteDatabase.create(null)) {
+                db.execSQL("CREATE VIRTUAL TABLE `test` USING fts5 (`text`)");
+                available = true;
+            } catch (Throwable ex) {
+                Log.w(ex);
+                available = false;
+            }
+        return available;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.i("FTS create");
@@ -129,9 +156,9 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
         try (Cursor cursor = db.rawQuery(
                 "SELECT term FROM message_terms" +
                         " WHERE term LIKE ?" +
-                        " ORDER BY cnt" +
+                        " ORDER BY cnt DESC" +
                         " LIMIT " + max,
-                new String[]{query})) {
+                new String[]{Fts4DbHelper.preprocessText(query)})) {
             while (cursor != null && cursor.moveToNext())
                 result.add(cursor.getString(0));
         }
@@ -199,6 +226,23 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
 
         String search = (sb.length() > 0 ? sb.toString() : escape(criteria.query));
 
+        // https://www.sqlite.org/fts5.html#fts5_column_filters
+        if (isPhrase(criteria)) {
+            List<String> columns = new ArrayList<>();
+            if (criteria.in_senders)
+                columns.add("address");
+            if (criteria.in_subject)
+                columns.add("subject");
+            if (criteria.in_keywords)
+                columns.add("keyword");
+            if (criteria.in_message)
+                columns.add("text");
+            if (criteria.in_notes)
+                columns.add("notes");
+            if (columns.size() > 0)
+                search = "{" + TextUtils.join(" ", columns) + "} : " + search;
+        }
+
         String select = "";
         if (account != null)
             select += "account = " + account + " AND ";
@@ -218,13 +262,17 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
         if (criteria.before != null)
             select += "time < " + criteria.before + " AND ";
 
+        // https://www.sqlite.org/fts5.html#the_bm25_function
+        // Weights: account, folder, time, address, subject, keyword, text, notes
+        String order = "bm25(message, 0, 0, 0, 2.0, 4.0, 2.0, 1.0, 1.0), time DESC";
+
         Log.i("FTS select=" + select + " search=" + search);
         List<Long> result = new ArrayList<>();
         try (Cursor cursor = db.query(
                 "message", new String[]{"rowid"},
                 select + "message MATCH ?",
                 new String[]{search},
-                null, null, "time DESC", null)) {
+                null, null, order, null)) {
             while (cursor != null && cursor.moveToNext())
                 result.add(cursor.getLong(0));
         }
@@ -232,6 +280,18 @@ public class Fts5DbHelper extends SQLiteOpenHelper {
         return result;
     }
 
+    static boolean isPhrase(BoundaryCallbackMessages.SearchCriteria criteria) {
+        // Sender and recipient addresses share one column
+        if (criteria.query == null || criteria.in_senders != criteria.in_recipients)
+            return false;
+
+        for (String w : criteria.query.trim().split("\\s+"))
+            if (w.length() > 1 && (w.startsWith("+") || w.startsWith("-") || w.startsWith("?")))
+                return false;
+
+        return true;
+    }
+
     private static String escape(String word) {
         return "\"" + word.replaceAll("\"", "\"\"") + "\"";
     }
@@ -2521,9 +2521,8 @@ public class HtmlHelper {
         try {
             if (body == null)
                 return null;
-            Document d = JsoupEx.parse(body);
-            return _getText(d);
-        } catch (OutOfMemoryError ex) {
+            return HtmlTextExtractor.getText(body, MAX_FULL_TEXT_SIZE);
+        } catch (IOException | OutOfMemoryError ex) {
             Log.e(ex);
             return null;
         }
@@ -2531,23 +2530,13 @@ public class HtmlHelper {
 
     static String getFullText(File file) throws IOException {
         try {
-            Document d = JsoupEx.parse(file);
-            return _getText(d);
+            return HtmlTextExtractor.getText(file, MAX_FULL_TEXT_SIZE);
         } catch (OutOfMemoryError ex) {
             Log.e(ex);
             return null;
         }
     }
 
-    private static String _getText(Document d) {
-        truncate(d, MAX_FULL_TEXT_SIZE);
-
-        for (Element bq : d.select("blockquote"))
-            bq.prependChild(new TextNode("> "));
-
-        return d.body().text();
-    }
-
     static String getQuoteStyle(Element e) {
         CharSequence text = e.text();
         return getQuoteStyle(text, 0, text.length());
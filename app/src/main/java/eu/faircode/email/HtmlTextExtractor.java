@@ -0,0 +1,374 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import org.jsoup.parser.Parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Streaming equivalent of Jsoup's Element.text() for plain text extraction
+// No document tree is built, so memory use is bounded by the size of the text
+public class HtmlTextExtractor {
+    private final Reader reader;
+    private final int max;
+
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int len = 0;
+
+    private final StringBuilder sb = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder tag = new StringBuilder();
+
+    private int length = 0;
+    private int pre = 0;
+    private boolean head = false;
+    private boolean space = false;
+    private boolean truncated = false;
+
+    private static final int MAX_TEXT_RUN = 64 * 1024; // characters
+
+    // org.jsoup.parser.Tag
+    private static final Set<String> BLOCK = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title",
+            "frame", "noframes", "section", "nav", "aside", "hgroup", "header", "footer", "p",
+            "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div", "blockquote", "hr",
+            "address", "figure", "figcaption", "form", "fieldset", "ins", "del", "dl", "dt", "dd",
+            "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr", "th", "td",
+            "video", "audio", "canvas", "details", "menu", "plaintext", "template", "article", "main",
+            "svg", "math", "center", "dir", "applet", "marquee", "listing"
+    )));
+
+    private static final Set<String> PRE = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "pre", "listing", "plaintext", "textarea"
+    )));
+
+    // Content not part of the body text
+    private static final Set<String> SKIP = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "script", "style", "title", "noframes", "xmp", "iframe", "noembed"
+    )));
+
+    private HtmlTextExtractor(Reader reader, int max) {
+        this.reader = reader;
+        this.max = max;
+    }
+
+    static String getText(String html, int max) throws IOException {
+        return new HtmlTextExtractor(new StringReader(html), max).extract();
+    }
+
+    static String getText(File file, int max) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return new HtmlTextExtractor(reader, max).extract();
+        }
+    }
+
+    private String extract() throws IOException {
+        int c;
+        while (!truncated && (c = read()) >= 0)
+            if (c == '<') {
+                int n = read();
+                if (n < 0)
+                    text.append('<');
+                else if (isLetter(n)) {
+                    flush();
+                    onStartTag(n);
+                } else if (n == '/') {
+                    int m = read();
+                    if (m >= 0 && isLetter(m)) {
+                        flush();
+                        onEndTag(m);
+                    } else if (m != '>') {
+                        // Bogus comment
+                        flush();
+                        skip('>');
+                    }
+                } else if (n == '!') {
+                    flush();
+                    int m = read();
+                    if (m == '-' && (m = read()) == '-')
+                        skipComment();
+                    else if (m != '>')
+                        skip('>');
+                } else if (n == '?') {
+                    flush();
+                    skip('>');
+                } else {
+                    text.append('<');
+                    unread();
+                }
+            } else {
+                text.append((char) c);
+                if (text.length() >= MAX_TEXT_RUN && (c == ' ' || c == ';'))
+                    flush();
+            }
+
+        flush();
+
+        Log.i("Message size=" + length);
+        return sb.toString().trim();
+    }
+
+    private void onStartTag(int c) throws IOException {
+        String name = readName(c);
+        boolean closed = skipAttributes();
+
+        if ("head".equals(name))
+            head = !closed;
+        else if ("body".equals(name))
+            head = false;
+
+        if (SKIP.contains(name)) {
+            if (!closed)
+                skipContent(name, null);
+            return;
+        }
+
+        if (BLOCK.contains(name) || "br".equals(name))
+            boundary();
+        else
+            pending();
+
+        if ("textarea".equals(name)) {
+            if (!closed) {
+                pre++;
+                skipNewline();
+                skipContent(name, text);
+                flush();
+                pre--;
+            }
+            return;
+        }
+
+        if (!closed && PRE.contains(name)) {
+            pre++;
+            skipNewline();
+        }
+
+        if ("blockquote".equals(name))
+            append("> ", false);
+    }
+
+    private void onEndTag(int c) throws IOException {
+        String name = readName(c);
+        skip('>');
+
+        if ("head".equals(name))
+            head = false;
+
+        if (BLOCK.contains(name))
+            space = true;
+
+        if (pre > 0 && PRE.contains(name))
+            pre--;
+    }
+
+    private void flush() {
+        if (text.length() == 0)
+            return;
+
+        String t = text.toString();
+        text.setLength(0);
+
+        // Whitespace in the document head is not part of the body text
+        if (head) {
+            if (t.trim().isEmpty())
+                return;
+            head = false;
+        }
+
+        if (t.indexOf('&') >= 0)
+            t = Parser.unescapeEntities(t, false);
+
+        if (length + t.length() >= max) {
+            t = t.substring(0, Math.max(0, max - length)) + " ...";
+            truncated = true;
+        }
+        length += t.length();
+
+        append(t, true);
+    }
+
+    private void boundary() {
+        space = false;
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+            sb.append(' ');
+    }
+
+    private void pending() {
+        if (space)
+            boundary();
+    }
+
+    private void append(String t, boolean content) {
+        if (content)
+            pending();
+
+        if (pre > 0) {
+            sb.append(t);
+            return;
+        }
+
+        // org.jsoup.internal.StringUtil.appendNormalisedWhitespace
+        boolean strip = (sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ');
+        boolean white = false;
+        boolean reached = false;
+        for (int i = 0; i < t.length(); i++) {
+            char c = t.charAt(i);
+            if (isWhitespace(c)) {
+                if ((strip && !reached) || white)
+                    continue;
+                sb.append(' ');
+                white = true;
+            } else if (!isInvisible(c)) {
+                sb.append(c);
+                white = false;
+                reached = true;
+            }
+        }
+    }
+
+    private String readName(int c) throws IOException {
+        tag.setLength(0);
+        while (c >= 0 && !isWhitespace((char) c) && c != '/' && c != '>') {
+            tag.append((char) c);
+            c = read();
+        }
+        if (c >= 0)
+            unread();
+        return tag.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private boolean skipAttributes() throws IOException {
+        int c;
+        int last = 0;
+        boolean value = false;
+        while ((c = read()) >= 0) {
+            if (c == '>')
+                return (last == '/');
+            if (c == '=')
+                value = true;
+            else if (value && (c == '"' || c == '\'')) {
+                skip(c);
+                value = false;
+            } else if (!isWhitespace((char) c))
+                value = false;
+            if (!isWhitespace((char) c))
+                last = c;
+        }
+        return false;
+    }
+
+    private void skipContent(String name, StringBuilder content) throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '<') {
+                int n = read();
+                if (n == '/') {
+                    int m = read();
+                    if (m >= 0 && isLetter(m) && readName(m).equals(name)) {
+                        skip('>');
+                        return;
+                    }
+                    if (content != null)
+                        content.append("</").append(tag);
+                    continue;
+                }
+                if (n >= 0)
+                    unread();
+            }
+            if (content != null)
+                content.append((char) c);
+        }
+    }
+
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = read()) >= 0)
+            if (c == '-')
+                dashes++;
+            else if (c == '>' && dashes >= 2)
+                return;
+            else
+                dashes = 0;
+    }
+
+    private void skipNewline() throws IOException {
+        // A newline directly after the start tag is ignored
+        int c = read();
+        if (c == '\r')
+            c = read();
+        if (c >= 0 && c != '\n')
+            unread();
+    }
+
+    private void skip(int until) throws IOException {
+        int c;
+        while ((c = read()) >= 0)
+            if (c == until)
+                return;
+    }
+
+    private int read() throws IOException {
+        while (true) {
+            if (pos >= len) {
+                len = reader.read(buffer, 0, buffer.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            char c = buffer[pos++];
+            if (c != 0)
+                return c;
+        }
+    }
+
+    private void unread() {
+        pos--;
+    }
+
+    private static boolean isLetter(int c) {
+        return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'));
+    }
+
+    private static boolean isWhitespace(char c) {
+        // org.jsoup.internal.StringUtil.isActuallyWhitespace
+        return (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160);
+    }
+
+    private static boolean isInvisible(char c) {
+        // Zero-width space, soft hyphen, byte order mark
+        return (c == 8203 || c == 173 || c == 0xFEFF);
+    }
+}
@@ -0,0 +1,173 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import java.util.Arrays;
+
+public class IntIntMap {
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public IntIntMap() {
+        this(2);
+    }
+
+    public IntIntMap(int expected) {
+        int capacity = 4;
+        while (capacity * 3 / 4 < expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        return (find(key) >= 0);
+    }
+
+    public int get(int key, int def) {
+        int slot = find(key);
+        return (slot < 0 ? def : values[slot]);
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE)
+            throw new IllegalArgumentException("key=" + key);
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4)
+            rehash(keys.length << 1);
+    }
+
+    public int add(int key, int delta) {
+        int value = get(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0)
+            return false;
+
+        // Backward shift deletion, no tombstones
+        int mask = keys.length - 1;
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            int k = keys[i];
+            if (k == FREE)
+                break;
+            int home = hash(k) & mask;
+            if (i > gap ? (home <= gap || home > i) : (home <= gap && home > i)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+
+        keys[gap] = FREE;
+        values[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int k : keys)
+            if (k != FREE)
+                result[n++] = k;
+        return result;
+    }
+
+    // Slot iteration, for hot paths without allocations
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isFree(int slot) {
+        return (keys[slot] == FREE);
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private void rehash(int capacity) {
+        int[] k = keys;
+        int[] v = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < k.length; i++)
+            if (k[i] != FREE)
+                put(k[i], v[i]);
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
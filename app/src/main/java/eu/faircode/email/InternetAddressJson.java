@@ -26,8 +26,11 @@ import javax.mail.Address;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 
+// Instances are shared by the address decode cache and are therefore immutable
+// Mutate a clone instead
 public class InternetAddressJson extends InternetAddress {
     private JSONObject json;
+    private boolean mutable = false;
 
     private InternetAddressJson() {
     }
@@ -53,7 +56,27 @@ public class InternetAddressJson extends InternetAddress {
     @Override
     public Object clone() {
         ensureParsed();
-        return super.clone();
+        InternetAddressJson clone = (InternetAddressJson) super.clone();
+        clone.mutable = true;
+        return clone;
+    }
+
+    @Override
+    public void setAddress(String address) {
+        ensureMutable();
+        super.setAddress(address);
+    }
+
+    @Override
+    public void setPersonal(String name, String charset) throws UnsupportedEncodingException {
+        ensureMutable();
+        super.setPersonal(name, charset);
+    }
+
+    @Override
+    public void setPersonal(String name) throws UnsupportedEncodingException {
+        ensureMutable();
+        super.setPersonal(name);
     }
 
     @Override
@@ -105,12 +128,17 @@ public class InternetAddressJson extends InternetAddress {
                 String personal = json.optString("personal");
                 if (TextUtils.isEmpty(personal))
                     personal = null;
-                this.setAddress(email);
-                this.setPersonal(personal, StandardCharsets.UTF_8.name());
+                super.setAddress(email);
+                super.setPersonal(personal, StandardCharsets.UTF_8.name());
             } catch (Throwable ex) {
                 Log.e(ex);
             }
             this.json = null;
         }
     }
+
+    private void ensureMutable() {
+        if (!mutable)
+            throw new UnsupportedOperationException("Shared address");
+    }
 }
\ No newline at end of file
@@ -2082,6 +2082,10 @@ public class Log {
                 .append(Helper.humanReadableByteCount(MessageClassifier.getSize(context)))
                 .append("\r\n");
 
+        long[] fts = WorkerFts.getStats();
+        sb.append(String.format("FTS indexed: %d batches: %d elapsed: %d ms rate: %d/s\r\n",
+                fts[0], fts[1], fts[2], fts[3]));
+
         sb.append("\r\n");
 
         int cpus = Runtime.getRuntime().availableProcessors();
@@ -3088,8 +3092,10 @@ public class Log {
                 }
                 try {
                     TupleFtsStats stats = db.message().getFts();
-                    size += write(os, String.format("fts: %d/%d %s\r\n", stats.fts, stats.total,
-                            Helper.humanReadableByteCount(Fts4DbHelper.size(context))));
+                    boolean fts5 = Fts5DbHelper.isEnabled(context);
+                    size += write(os, String.format("fts: %d/%d %s fts5=%b/%b\r\n", stats.fts, stats.total,
+                            Helper.humanReadableByteCount(fts5 ? Fts5DbHelper.size(context) : Fts4DbHelper.size(context)),
+                            fts5, Fts5DbHelper.isAvailable()));
                 } catch (Throwable ex) {
                     size += write(os, String.format("%s\r\n", ex));
                 }
@@ -3335,10 +3341,10 @@ public class Log {
         attachment.progress = 0;
         attachment.id = db.attachment().insertAttachment(attachment);
 
-        MessageClassifier.save(context);
-        File source = MessageClassifier.getFile(context, false);
         File target = attachment.getFile(context);
-        Helper.copy(source, target);
+        try (OutputStream os = new FileOutputStream(target)) {
+            MessageClassifier.export(context, os);
+        }
 
         db.attachment().setDownloaded(attachment.id, target.length());
     }
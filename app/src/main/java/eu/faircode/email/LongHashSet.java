@@ -0,0 +1,149 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import java.util.Arrays;
+import java.util.Collection;
+
+public class LongHashSet {
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(2);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = 4;
+        while (capacity * 3 / 4 < expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    public LongHashSet(Collection<Long> values) {
+        this(values.size());
+        for (Long value : values)
+            add(value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long key) {
+        return (find(key) >= 0);
+    }
+
+    public boolean add(long key) {
+        if (key == FREE)
+            throw new IllegalArgumentException("key=" + key);
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        if (++size > keys.length * 3 / 4)
+            rehash(keys.length << 1);
+        return true;
+    }
+
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0)
+            return false;
+
+        // Backward shift deletion, no tombstones
+        int mask = keys.length - 1;
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if (k == FREE)
+                break;
+            int home = hash(k) & mask;
+            if (i > gap ? (home <= gap || home > i) : (home <= gap && home > i)) {
+                keys[gap] = k;
+                gap = i;
+            }
+        }
+
+        keys[gap] = FREE;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size];
+        int n = 0;
+        for (long k : keys)
+            if (k != FREE)
+                result[n++] = k;
+        return result;
+    }
+
+    public long[] toSortedArray() {
+        long[] result = toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private void rehash(int capacity) {
+        long[] k = keys;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < k.length; i++)
+            if (k[i] != FREE)
+                add(k[i]);
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
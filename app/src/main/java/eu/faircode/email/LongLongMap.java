@@ -0,0 +1,135 @@
+package eu.faircode.email;
+
+/*
+    This file is part of FairEmail.
+
+    FairEmail is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FairEmail is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with FairEmail.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2018-2023 by Marcel Bokhorst (M66B)
+*/
+
+import java.util.Arrays;
+
+public class LongLongMap {
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+
+    public LongLongMap() {
+        this(2);
+    }
+
+    public LongLongMap(int expected) {
+        int capacity = 4;
+        while (capacity * 3 / 4 < expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return (find(key) >= 0);
+    }
+
+    public long get(long key, long def) {
+        int slot = find(key);
+        return (slot < 0 ? def : values[slot]);
+    }
+
+    public void put(long key, long value) {
+        if (key == FREE)
+            throw new IllegalArgumentException("key=" + key);
+
+        int mask = keys.length - 1;
+        int slot = LongHashSet.hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4)
+            rehash(keys.length << 1);
+    }
+
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (slot < 0)
+            return false;
+
+        // Backward shift deletion, no tombstones
+        int mask = keys.length - 1;
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            long k = keys[i];
+            if (k == FREE)
+                break;
+            int home = LongHashSet.hash(k) & mask;
+            if (i > gap ? (home <= gap || home > i) : (home <= gap && home > i)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+
+        keys[gap] = FREE;
+        values[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = LongHashSet.hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    private void rehash(int capacity) {
+        long[] k = keys;
+        long[] v = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < k.length; i++)
+            if (k[i] != FREE)
+                put(k[i], v[i]);
+    }
+}
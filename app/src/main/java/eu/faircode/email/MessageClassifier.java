@@ -24,6 +24,7 @@ import android.content.SharedPreferences;
 import android.os.Build;
 import android.text.TextUtils;
 import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.JsonWriter;
 
 import androidx.annotation.NonNull;
@@ -31,35 +32,70 @@ import androidx.preference.PreferenceManager;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.mail.Address;
 import javax.mail.internet.InternetAddress;
 
 public class MessageClassifier {
-    private static boolean loaded = false;
-    private static boolean dirty = false;
-    private static final Map<Long, List<String>> accountMsgIds = new HashMap<>();
-    private static final Map<Long, Map<String, Integer>> classMessages = new HashMap<>();
-    private static final Map<Long, Map<Integer, Map<String, Frequency>>> wordClassFrequency = new HashMap<>();
-    private static final Map<String, Integer> wordIndex = new LinkedHashMap<>();
-
-    private static final int VERSION = 4;
+    private static volatile boolean loaded = false;
+    private static volatile boolean dirty = false;
+    private static volatile int generation = 0;
+    private static final Map<Long, Set<String>> accountMsgIds = new HashMap<>();
+    private static final Map<Long, Model> accountModel = new HashMap<>();
+    private static final Map<String, Integer> wordIndex = new HashMap<>();
+    private static final List<String> wordList = new ArrayList<>();
+
+    // Model updates hold the read lock and the account lock, load/save/cleanup hold the write lock
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final Map<Long, Object> accountLocks = new HashMap<>();
+    private static final ExecutorService executor = Helper.getBackgroundExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), "classifier");
+
+    // Binary file state
+    private static int wordsSaved = 0;
+    private static boolean classifiedDirty = false;
+    private static final List<Section> sections = new ArrayList<>();
+    private static final Map<Long, ByteBuffer> pendingModels = new HashMap<>();
+
+    private static final int VERSION = 5;
+    private static final int BINARY_MAGIC = 0x46454331; // FEC1
+    private static final int BINARY_VERSION = 1;
+    private static final int HEADER_SIZE = 20; // magic, version, directory offset, directory length
+    private static final int SECTION_WORDS = 1;
+    private static final int SECTION_MODEL = 2;
+    private static final int SECTION_CLASSIFIED = 3;
+    private static final long COMPACT_SLACK = 1024 * 1024L;
     private static final int MAX_WORDS = 1000;
+    private static final int MAX_CLASSIFIED = 10000; // per account
+    private static final int NONE = -1;
 
-    static synchronized void classify(EntityMessage message, EntityFolder folder, boolean added, Context context) {
+    static void classify(EntityMessage message, EntityFolder folder, boolean added, Context context) {
         try {
             if (!isEnabled(context))
                 return;
@@ -67,80 +103,196 @@ public class MessageClassifier {
             if (!folder.auto_classify_source)
                 return;
 
-            if (message.ui_hide)
-                return;
+            // Load data if needed
+            load(context);
 
-            long start = new Date().getTime();
+            Features features = getFeatures(message, context);
+            if (features != null)
+                classify(features, folder, added, context);
+        } catch (Throwable ex) {
+            Log.e(ex);
+        }
+    }
+
+    static void classify(List<EntityMessage> messages, EntityFolder folder, boolean added, Context context) {
+        if (messages.size() == 0)
+            return;
+
+        if (!isEnabled(context))
+            return;
 
-            // Build text to classify
-            List<String> texts = getTexts(message, context);
-            if (texts.size() == 0)
+        if (!folder.auto_classify_source)
+            return;
+
+        // Load data if needed
+        load(context);
+
+        // Extract features in parallel, update the model in order
+        List<Future<Features>> futures = new ArrayList<>();
+        for (final EntityMessage message : messages)
+            futures.add(executor.submit(new Callable<Features>() {
+                @Override
+                public Features call() throws Exception {
+                    return getFeatures(message, context);
+                }
+            }));
+
+        for (Future<Features> future : futures)
+            try {
+                Features features = future.get();
+                if (features != null)
+                    classify(features, folder, added, context);
+            } catch (Throwable ex) {
+                Log.e(ex);
+            }
+    }
+
+    private static void classify(Features features, EntityFolder folder, boolean added, Context context) {
+        EntityMessage message = features.message;
+        long start = new Date().getTime();
+
+        // Classify texts
+        List<Chance> chances;
+        lock.readLock().lock();
+        try {
+            // Word indexes are invalid after the data was cleared
+            if (features.generation != generation)
                 return;
 
-            // Load data if needed
-            load(context);
+            synchronized (getAccountLock(folder.account)) {
+                Model model = getModel(folder.account);
+                chances = classify(message, model, folder.name, features, added, context);
+                model.dirty = true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        dirty = true;
 
-            // Initialize account if needed
-            if (!accountMsgIds.containsKey(folder.account))
-                accountMsgIds.put(folder.account, new ArrayList<>());
-            if (!classMessages.containsKey(folder.account))
-                classMessages.put(folder.account, new HashMap<>());
-            if (!wordClassFrequency.containsKey(folder.account))
-                wordClassFrequency.put(folder.account, new HashMap<>());
+        String classified = select(message, folder.name, chances, context);
 
-            // Classify texts
-            String classified = classify(message, folder.name, texts, added, context);
+        long elapsed = new Date().getTime() - start;
+        EntityLog.log(context, EntityLog.Type.Classification, message,
+                "Classifier" +
+                        " folder=" + folder.account + ":" + folder.name + ":" + folder.type +
+                        " added=" + added +
+                        " message=" + message.id + "/" + !TextUtils.isEmpty(message.msgid) +
+                        " keyword=" + message.hasKeyword(MessageHelper.FLAG_CLASSIFIED) +
+                        " filtered=" + message.hasKeyword(MessageHelper.FLAG_FILTERED) +
+                        "@" + new Date(message.received) +
+                        ":" + message.subject +
+                        " class=" + classified +
+                        " re=" + message.auto_classified +
+                        " elapsed=" + elapsed);
+
+        // Auto classify message
+        if (classified != null &&
+                !classified.equals(folder.name) &&
+                !TextUtils.isEmpty(message.msgid) &&
+                !message.hasKeyword(MessageHelper.FLAG_CLASSIFIED) &&
+                (!message.hasKeyword(MessageHelper.FLAG_FILTERED) || BuildConfig.DEBUG) &&
+                !isClassified(folder.account, message.msgid) &&
+                !EntityFolder.JUNK.equals(folder.type)) {
+            boolean pro = ActivityBilling.isPro(context);
 
-            long elapsed = new Date().getTime() - start;
-            EntityLog.log(context, EntityLog.Type.Classification, message,
-                    "Classifier" +
-                            " folder=" + folder.account + ":" + folder.name + ":" + folder.type +
-                            " added=" + added +
-                            " message=" + message.id + "/" + !TextUtils.isEmpty(message.msgid) +
-                            " keyword=" + message.hasKeyword(MessageHelper.FLAG_CLASSIFIED) +
-                            " filtered=" + message.hasKeyword(MessageHelper.FLAG_FILTERED) +
-                            "@" + new Date(message.received) +
-                            ":" + message.subject +
-                            " class=" + classified +
-                            " re=" + message.auto_classified +
-                            " elapsed=" + elapsed);
-
-            // Auto classify message
-            if (classified != null &&
-                    !classified.equals(folder.name) &&
-                    !TextUtils.isEmpty(message.msgid) &&
-                    !message.hasKeyword(MessageHelper.FLAG_CLASSIFIED) &&
-                    (!message.hasKeyword(MessageHelper.FLAG_FILTERED) || BuildConfig.DEBUG) &&
-                    !accountMsgIds.get(folder.account).contains(message.msgid) &&
-                    !EntityFolder.JUNK.equals(folder.type)) {
-                boolean pro = ActivityBilling.isPro(context);
+            DB db = DB.getInstance(context);
+            try {
+                db.beginTransaction();
+
+                EntityFolder dest = db.folder().getFolderByName(folder.account, classified);
+                if (dest != null && dest.auto_classify_target &&
+                        (pro || EntityFolder.JUNK.equals(dest.type)) &&
+                        (!EntityFolder.JUNK.equals(dest.type) || !message.isNotJunk(context))) {
+                    EntityOperation.queue(context, message, EntityOperation.KEYWORD, MessageHelper.FLAG_CLASSIFIED, true);
+                    EntityOperation.queue(context, message, EntityOperation.MOVE, dest.id, false, true);
+                    message.ui_hide = true;
+                }
 
-                DB db = DB.getInstance(context);
-                try {
-                    db.beginTransaction();
-
-                    EntityFolder dest = db.folder().getFolderByName(folder.account, classified);
-                    if (dest != null && dest.auto_classify_target &&
-                            (pro || EntityFolder.JUNK.equals(dest.type)) &&
-                            (!EntityFolder.JUNK.equals(dest.type) || !message.isNotJunk(context))) {
-                        EntityOperation.queue(context, message, EntityOperation.KEYWORD, MessageHelper.FLAG_CLASSIFIED, true);
-                        EntityOperation.queue(context, message, EntityOperation.MOVE, dest.id, false, true);
-                        message.ui_hide = true;
-                    }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+            //if (message.ui_hide)
+            //    addClassified(folder.account, message.msgid);
+        }
+    }
+
+    private static Features getFeatures(@NonNull EntityMessage message, @NonNull Context context) throws IOException {
+        if (message.ui_hide)
+            return null;
+
+        // Build text to classify
+        List<String> texts = getTexts(message, context);
+        if (texts.size() == 0)
+            return null;
+
+        List<String> tokens = new ArrayList<>();
+        for (String text : texts) {
+            // First word
+            addToken(tokens, null);
+
+            // Process words
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                java.text.BreakIterator boundary = java.text.BreakIterator.getWordInstance();
+                boundary.setText(text);
+                int start = boundary.first();
+                for (int end = boundary.next(); end != java.text.BreakIterator.DONE; end = boundary.next()) {
+                    String word = text.substring(start, end);
+                    addToken(tokens, word);
+                    if (tokens.size() >= MAX_WORDS)
+                        break;
+                    start = end;
+                }
+            } else {
+                // The ICU break iterator works better for Chinese texts
+                android.icu.text.BreakIterator boundary = android.icu.text.BreakIterator.getWordInstance();
+                boundary.setText(text);
+                int start = boundary.first();
+                for (int end = boundary.next(); end != android.icu.text.BreakIterator.DONE; end = boundary.next()) {
+                    String word = text.substring(start, end);
+                    addToken(tokens, word);
+                    if (tokens.size() >= MAX_WORDS)
+                        break;
+                    start = end;
                 }
+            }
+        }
+
+        // final word
+        addToken(tokens, null);
 
-                //if (message.ui_hide)
-                //    accountMsgIds.get(folder.account).add(message.msgid);
+        // Saving, loading and clearing hold the write lock,
+        // so no words can be added while the word list is being written or read
+        int[] words = new int[tokens.size()];
+        int gen;
+        lock.readLock().lock();
+        try {
+            synchronized (wordList) {
+                gen = generation;
+                for (int i = 0; i < words.length; i++) {
+                    String token = tokens.get(i);
+                    words[i] = (token == null ? NONE : getWordIndex(token));
+                }
             }
+        } finally {
+            lock.readLock().unlock();
+        }
 
-            dirty = true;
-        } catch (Throwable ex) {
-            Log.e(ex);
+        return new Features(message, gen, texts.size(), words);
+    }
+
+    private static void addToken(List<String> tokens, String word) {
+        if (word != null) {
+            word = word.trim().toLowerCase();
+            if (word.length() < 2 || word.matches(".*\\d.*"))
+                return;
         }
+
+        if (word != null ||
+                tokens.size() == 0 ||
+                tokens.get(tokens.size() - 1) != null)
+            tokens.add(word);
     }
 
     @NonNull
@@ -184,67 +336,36 @@ public class MessageClassifier {
         return texts;
     }
 
-    private static String classify(EntityMessage message, @NonNull String currentClass, @NonNull List<String> texts, boolean added, @NonNull Context context) {
+    private static List<Chance> classify(EntityMessage message, Model model, @NonNull String currentClass, @NonNull Features features, boolean added, @NonNull Context context) {
         State state = new State();
 
         // Check classes
         DB db = DB.getInstance(context);
-        for (String clazz : new ArrayList<>(classMessages.get(message.account).keySet())) {
+        for (int id : model.classMessages.keys()) {
+            String clazz = model.classNames.get(id);
             EntityFolder folder = db.folder().getFolderByName(message.account, clazz);
             if (folder == null || !folder.auto_classify_source) {
                 EntityLog.log(context, EntityLog.Type.Classification, message,
                         "Classifier deleting folder" +
                                 " class=" + message.account + ":" + clazz +
                                 " exists=" + (folder != null));
-                classMessages.get(message.account).remove(clazz);
-                for (int word : wordClassFrequency.get(message.account).keySet())
-                    wordClassFrequency.get(message.account).get(word).remove(clazz);
-            }
-        }
-
-        Log.i("Classifier texts=" + texts.size());
-        for (String text : texts) {
-            // First word
-            processWord(message.account, added, null, state);
-
-            // Process words
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-                java.text.BreakIterator boundary = java.text.BreakIterator.getWordInstance();
-                boundary.setText(text);
-                int start = boundary.first();
-                for (int end = boundary.next(); end != java.text.BreakIterator.DONE; end = boundary.next()) {
-                    String word = text.substring(start, end);
-                    processWord(message.account, added, word, state);
-                    if (state.words.size() >= MAX_WORDS)
-                        break;
-                    start = end;
-                }
-            } else {
-                // The ICU break iterator works better for Chinese texts
-                android.icu.text.BreakIterator boundary = android.icu.text.BreakIterator.getWordInstance();
-                boundary.setText(text);
-                int start = boundary.first();
-                for (int end = boundary.next(); end != android.icu.text.BreakIterator.DONE; end = boundary.next()) {
-                    String word = text.substring(start, end);
-                    processWord(message.account, added, word, state);
-                    if (state.words.size() >= MAX_WORDS)
-                        break;
-                    start = end;
-                }
+                model.removeClass(id);
             }
         }
 
-        // final word
-        processWord(message.account, added, null, state);
+        Log.i("Classifier texts=" + features.texts);
+        for (int word : features.words)
+            _processWord(model, added, word, state);
 
         int maxMessages = 0;
-        for (String clazz : classMessages.get(message.account).keySet()) {
-            int count = classMessages.get(message.account).get(clazz);
-            if (count > maxMessages)
-                maxMessages = count;
-        }
+        for (int slot = 0; slot < model.classMessages.capacity(); slot++)
+            if (!model.classMessages.isFree(slot)) {
+                int count = model.classMessages.valueAt(slot);
+                if (count > maxMessages)
+                    maxMessages = count;
+            }
 
-        updateFrequencies(message.account, currentClass, added, state);
+        updateFrequencies(model, currentClass, added, state);
 
         if (maxMessages == 0) {
             Log.i("Classifier no messages account=" + message.account);
@@ -255,10 +376,13 @@ public class MessageClassifier {
             return null;
 
         // Calculate chance per class
-        int words = state.words.size() - texts.size() - 1;
+        int words = state.size - features.texts - 1;
         List<Chance> chances = new ArrayList<>();
-        for (String clazz : state.classStats.keySet()) {
-            Stat stat = state.classStats.get(clazz);
+        for (int slot = 0; slot < state.classStats.capacity(); slot++) {
+            if (state.classStats.isFree(slot))
+                continue;
+            String clazz = model.classNames.get(state.classStats.keyAt(slot));
+            Stat stat = state.classStats.valueAt(slot);
 
             double chance = stat.totalFrequency / maxMessages / words;
             Chance c = new Chance(clazz, chance);
@@ -272,14 +396,23 @@ public class MessageClassifier {
 
         if (BuildConfig.DEBUG) {
             StringBuilder sb = new StringBuilder();
-            for (Integer word : state.words) {
-                if (sb.length() > 0)
-                    sb.append(", ");
-                sb.append(getWord(word));
+            synchronized (wordList) {
+                for (int i = 0; i < state.size; i++) {
+                    if (sb.length() > 0)
+                        sb.append(", ");
+                    sb.append(getWord(state.words[i]));
+                }
             }
-            Log.i("Classifier words=" + state.words.size() + " " + sb);
+            Log.i("Classifier words=" + state.size + " " + sb);
         }
 
+        return chances;
+    }
+
+    private static String select(EntityMessage message, @NonNull String currentClass, List<Chance> chances, @NonNull Context context) {
+        if (chances == null)
+            return null;
+
         // Sort classes by chance
         Collections.sort(chances, new Comparator<Chance>() {
             @Override
@@ -294,6 +427,7 @@ public class MessageClassifier {
 
         // Special case: pick first best target class
         if (class_min_difference == 0) {
+            DB db = DB.getInstance(context);
             for (Chance chance : chances)
                 if (chance.chance > class_min_chance) {
                     EntityFolder target = db.folder().getFolderByName(message.account, chance.clazz);
@@ -325,43 +459,33 @@ public class MessageClassifier {
         return classification;
     }
 
-    private static void processWord(long account, boolean added, String word, State state) {
-        if (word != null) {
-            word = word.trim().toLowerCase();
-            if (word.length() < 2 || word.matches(".*\\d.*"))
-                return;
-        }
-
-        _processWord(account, added, word == null ? null : getWordIndex(word), state);
-    }
-
-    private static void _processWord(long account, boolean added, Integer word, State state) {
+    private static void _processWord(Model model, boolean added, int word, State state) {
 
-        if (word != null ||
-                state.words.size() == 0 ||
-                state.words.get(state.words.size() - 1) != null)
-            state.words.add(word);
+        if (word != NONE ||
+                state.size == 0 ||
+                state.words[state.size - 1] != NONE)
+            state.add(word);
 
         if (!added)
             return;
 
-        if (state.words.size() < 3)
+        if (state.size < 3)
             return;
 
-        Integer before = state.words.get(state.words.size() - 3);
-        Integer current = state.words.get(state.words.size() - 2);
-        Integer after = state.words.get(state.words.size() - 1);
+        int before = state.words[state.size - 3];
+        int current = state.words[state.size - 2];
+        int after = state.words[state.size - 1];
 
-        if (current == null)
+        if (current == NONE)
             return;
 
-        Map<String, Frequency> classFrequency = wordClassFrequency.get(account).get(current);
+        Frequency[] classFrequency = model.words.get(current);
         if (classFrequency == null)
             return;
 
-        for (String clazz : classFrequency.keySet()) {
-            Frequency frequency = classFrequency.get(clazz);
-            if (frequency.count <= 0)
+        for (int clazz = 0; clazz < classFrequency.length; clazz++) {
+            Frequency frequency = classFrequency[clazz];
+            if (frequency == null || frequency.count <= 0)
                 continue;
 
             Stat stat = state.classStats.get(clazz);
@@ -371,11 +495,11 @@ public class MessageClassifier {
             }
 
             int c = (frequency.count - frequency.duplicates);
-            Integer b = (before == null ? null : frequency.before.get(before));
-            Integer a = (after == null ? null : frequency.after.get(after));
+            int b = (before == NONE ? Integer.MIN_VALUE : frequency.before.get(before, Integer.MIN_VALUE));
+            int a = (after == NONE ? Integer.MIN_VALUE : frequency.after.get(after, Integer.MIN_VALUE));
             double f = (c +
-                    (b == null ? 2 * c : 2.0 * b / frequency.count * c) +
-                    (a == null ? 2 * c : 2.0 * a / frequency.count * c)) / 5.0;
+                    (b == Integer.MIN_VALUE ? 2 * c : 2.0 * b / frequency.count * c) +
+                    (a == Integer.MIN_VALUE ? 2 * c : 2.0 * a / frequency.count * c)) / 5.0;
             //Log.i("Classifier " +
             //        before + "/" + b + "/" + frequency.before.get(before) + " " +
             //        after + "/" + a + "/" + frequency.after.get(after) + " " +
@@ -392,174 +516,639 @@ public class MessageClassifier {
 
     private static int getWordIndex(String word) {
         Integer index = wordIndex.get(word);
-        if (index == null) {
-            index = wordIndex.size();
-            wordIndex.put(word, index);
+        if (index == null)
+            index = addWord(word);
+        return index;
+    }
+
+    private static boolean isClassified(long account, String msgid) {
+        synchronized (accountMsgIds) {
+            Set<String> msgids = accountMsgIds.get(account);
+            return (msgids != null && msgids.contains(msgid));
         }
+    }
+
+    private static int addWord(String word) {
+        int index = wordList.size();
+        wordList.add(word);
+        wordIndex.put(word, index);
         return index;
     }
 
-    private static String getWord(Integer index) {
-        if (index == null)
+    private static void addClassified(long account, String msgid) {
+        synchronized (accountMsgIds) {
+            Set<String> msgids = accountMsgIds.get(account);
+            if (msgids == null) {
+                msgids = new LinkedHashSet<>();
+                accountMsgIds.put(account, msgids);
+            }
+            msgids.remove(msgid);
+            msgids.add(msgid);
+
+            // Evict oldest
+            Iterator<String> it = msgids.iterator();
+            while (msgids.size() > MAX_CLASSIFIED && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+
+            classifiedDirty = true;
+        }
+    }
+
+    private static String getWord(int index) {
+        if (index == NONE)
             return "<null>";
-        if (index < 0 || index >= wordIndex.size())
+        if (index < 0 || index >= wordList.size())
             return "<" + index + ">";
-        return new ArrayList<>(wordIndex.keySet()).get(index);
+        return wordList.get(index);
     }
 
-    private static void updateFrequencies(long account, @NonNull String currentClass, boolean added, @NonNull State state) {
-        Integer m = classMessages.get(account).get(currentClass);
-        m = (m == null ? 0 : m) + (added ? 1 : -1);
+    private static void updateFrequencies(Model model, @NonNull String currentClass, boolean added, @NonNull State state) {
+        int clazz = model.getClassId(currentClass);
+        int m = model.classMessages.get(clazz, 0) + (added ? 1 : -1);
         if (m <= 0)
-            classMessages.get(account).remove(currentClass);
+            model.classMessages.remove(clazz);
         else
-            classMessages.get(account).put(currentClass, m);
+            model.classMessages.put(clazz, m);
         Log.i("Classifier " + currentClass + "=" + m + " msgs");
 
-        for (int i = 1; i < state.words.size() - 1; i++) {
-            Integer before = state.words.get(i - 1);
-            Integer current = state.words.get(i);
-            Integer after = state.words.get(i + 1);
+        for (int i = 1; i < state.size - 1; i++) {
+            int before = state.words[i - 1];
+            int current = state.words[i];
+            int after = state.words[i + 1];
 
-            if (current == null)
+            if (current == NONE)
                 continue;
 
-            Map<String, Frequency> classFrequency = wordClassFrequency.get(account).get(current);
+            Frequency[] classFrequency = model.words.get(current);
             if (added) {
-                if (classFrequency == null) {
-                    classFrequency = new HashMap<>();
-                    wordClassFrequency.get(account).put(current, classFrequency);
+                if (classFrequency == null || classFrequency.length <= clazz) {
+                    Frequency[] grown = new Frequency[clazz + 1];
+                    if (classFrequency != null)
+                        System.arraycopy(classFrequency, 0, grown, 0, classFrequency.length);
+                    classFrequency = grown;
+                    model.words.put(current, classFrequency);
                 }
-                Frequency c = classFrequency.get(currentClass);
+                Frequency c = classFrequency[clazz];
                 if (c == null) {
                     c = new Frequency();
-                    classFrequency.put(currentClass, c);
+                    classFrequency[clazz] = c;
                 }
-                c.add(before, after, 1, state.words.indexOf(current) < i);
+                c.add(before, after, 1, state.indexOf(current) < i);
             } else {
-                Frequency c = (classFrequency == null ? null : classFrequency.get(currentClass));
+                Frequency c = (classFrequency == null || classFrequency.length <= clazz ? null : classFrequency[clazz]);
                 if (c != null)
-                    c.add(before, after, -1, state.words.indexOf(current) < i);
+                    c.add(before, after, -1, state.indexOf(current) < i);
             }
         }
     }
 
-    static synchronized void save(@NonNull Context context) throws IOException {
-        if (!dirty)
-            return;
+    static void save(@NonNull Context context) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!dirty)
+                return;
 
-        long start = new Date().getTime();
+            long start = new Date().getTime();
 
-        reduce();
+            for (Long account : accountModel.keySet()) {
+                Model model = accountModel.get(account);
+                if (model.dirty)
+                    reduce(account, model);
+            }
 
-        File file = getFile(context, false);
-        File backup = getFile(context, true);
-        backup.delete();
-        if (file.exists())
-            file.renameTo(backup);
+            File file = getFile(context);
+            Log.i("Classifier save " + file);
 
-        Log.i("Classifier save " + file);
-        try (JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(file)))) {
-            writer.beginObject();
+            boolean patched = false;
+            if (file.exists() && sections.size() > 0)
+                try {
+                    patched = patch(file);
+                } catch (IOException ex) {
+                    Log.w(ex);
+                }
 
-            Log.i("Classifier write version=" + VERSION);
-            writer.name("version").value(VERSION);
+            if (!patched) {
+                rewrite(file);
+                getJsonFile(context, false).delete();
+                getJsonFile(context, true).delete();
+            }
 
-            writer.name("messages");
-            writer.beginArray();
-            for (Long account : classMessages.keySet())
-                for (String clazz : classMessages.get(account).keySet()) {
-                    writer.beginObject();
-                    writer.name("account").value(account);
-                    writer.name("class").value(clazz);
-                    writer.name("count").value(classMessages.get(account).get(clazz));
-                    writer.endObject();
-                }
-            writer.endArray();
-
-            writer.name("words");
-            writer.beginArray();
-            for (Long account : wordClassFrequency.keySet())
-                for (int word : wordClassFrequency.get(account).keySet()) {
-                    Map<String, Frequency> classFrequency = wordClassFrequency.get(account).get(word);
-                    for (String clazz : classFrequency.keySet()) {
-                        Frequency f = classFrequency.get(clazz);
-                        writer.beginObject();
+            for (Model model : accountModel.values())
+                model.dirty = false;
+            classifiedDirty = false;
+            dirty = false;
 
-                        writer.name("account").value(account);
-                        writer.name("word").value(word);
-                        writer.name("class").value(clazz);
-                        writer.name("count").value(f.count);
-                        writer.name("dup").value(f.duplicates);
+            long elapsed = new Date().getTime() - start;
+            Log.i("Classifier data saved elapsed=" + elapsed + " size=" + file.length() + " patched=" + patched);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                        writer.name("before");
-                        writer.beginObject();
-                        for (int key : f.before.keySet())
-                            writer.name(Integer.toString(key)).value(f.before.get(key));
-                        writer.endObject();
+    private static boolean patch(File file) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        List<Section> result = new ArrayList<>(sections);
+        try (RandomAccessFile source = new RandomAccessFile(file, "r");
+             RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            long live = HEADER_SIZE;
+            for (Section section : sections)
+                live += section.length;
+            if (source.length() > live * 2 + COMPACT_SLACK) {
+                Log.i("Classifier compact size=" + source.length() + " live=" + live);
+                return false;
+            }
+
+            // Copy the existing sections without parsing them, the original file stays untouched
+            raf.setLength(0);
+            FileChannel in = source.getChannel();
+            long size = in.size();
+            for (long copied = 0; copied < size; )
+                copied += in.transferTo(copied, size - copied, raf.getChannel());
+
+            // Append changed sections
+            long pos = size;
+            if (wordsSaved < wordList.size())
+                pos = append(raf, pos, writeWords(wordsSaved), result, SECTION_WORDS, wordsSaved);
+            for (Long account : accountModel.keySet()) {
+                Model model = accountModel.get(account);
+                if (model.dirty)
+                    pos = append(raf, pos, writeModel(model), result, SECTION_MODEL, account);
+            }
+            if (classifiedDirty)
+                pos = append(raf, pos, writeClassified(), result, SECTION_CLASSIFIED, 0);
+
+            writeDirectory(raf, pos, result);
+        }
+
+        replace(tmp, file);
+
+        sections.clear();
+        sections.addAll(result);
+        wordsSaved = wordList.size();
+        return true;
+    }
+
+    private static void rewrite(File file) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        List<Section> result = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+
+            long pos = HEADER_SIZE;
+            pos = append(raf, pos, writeWords(0), result, SECTION_WORDS, 0);
+            for (Long account : accountModel.keySet())
+                pos = append(raf, pos, writeModel(accountModel.get(account)), result, SECTION_MODEL, account);
+            for (Long account : pendingModels.keySet()) {
+                // Copy sections which were never used since loading
+                ByteBuffer buffer = pendingModels.get(account).duplicate();
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                pos = append(raf, pos, data, result, SECTION_MODEL, account);
+            }
+            pos = append(raf, pos, writeClassified(), result, SECTION_CLASSIFIED, 0);
+
+            writeDirectory(raf, pos, result);
+        }
+
+        replace(tmp, file);
+
+        sections.clear();
+        sections.addAll(result);
+        wordsSaved = wordList.size();
+    }
+
+    private static void replace(File tmp, File file) throws IOException {
+        // Keep the previous file as the last good version
+        File backup = getBackupFile(file);
+        if (file.exists() && !file.renameTo(backup))
+            throw new IOException("Rename failed " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("Rename failed " + tmp);
+    }
+
+    private static long append(RandomAccessFile raf, long pos, byte[] data, List<Section> result, int type, long key) throws IOException {
+        if (type != SECTION_WORDS)
+            for (Section section : new ArrayList<>(result))
+                if (section.type == type && section.key == key)
+                    result.remove(section);
+        raf.seek(pos);
+        raf.write(data);
+        result.add(new Section(type, key, pos, data.length));
+        return pos + data.length;
+    }
+
+    private static void writeDirectory(RandomAccessFile raf, long pos, List<Section> result) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(result.size());
+        for (Section section : result) {
+            out.writeInt(section.type);
+            out.writeLong(section.key);
+            out.writeLong(section.offset);
+            out.writeInt(section.length);
+        }
+        out.flush();
+
+        raf.seek(pos);
+        raf.write(bos.toByteArray());
+        raf.getFD().sync();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(BINARY_MAGIC);
+        header.putInt(BINARY_VERSION);
+        header.putLong(pos);
+        header.putInt(bos.size());
+
+        raf.seek(0);
+        raf.write(header.array());
+        raf.getFD().sync();
+    }
 
-                        writer.name("after");
+    private static byte[] writeWords(int from) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(from);
+        out.writeInt(wordList.size() - from);
+        for (int index = from; index < wordList.size(); index++)
+            writeString(out, wordList.get(index));
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static byte[] writeModel(Model model) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        out.writeInt(model.classNames.size());
+        for (String name : model.classNames)
+            writeString(out, name);
+
+        out.writeInt(model.classMessages.size());
+        for (int slot = 0; slot < model.classMessages.capacity(); slot++)
+            if (!model.classMessages.isFree(slot)) {
+                out.writeInt(model.classMessages.keyAt(slot));
+                out.writeInt(model.classMessages.valueAt(slot));
+            }
+
+        out.writeInt(model.words.size());
+        for (int slot = 0; slot < model.words.capacity(); slot++) {
+            if (model.words.isFree(slot))
+                continue;
+
+            Frequency[] classFrequency = model.words.valueAt(slot);
+            int count = 0;
+            for (Frequency f : classFrequency)
+                if (f != null)
+                    count++;
+
+            out.writeInt(model.words.keyAt(slot));
+            out.writeInt(count);
+            for (int clazz = 0; clazz < classFrequency.length; clazz++) {
+                Frequency f = classFrequency[clazz];
+                if (f == null)
+                    continue;
+                out.writeInt(clazz);
+                out.writeInt(f.count);
+                out.writeInt(f.duplicates);
+                writeCounts(out, f.before);
+                writeCounts(out, f.after);
+            }
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static void writeCounts(DataOutputStream out, IntIntMap counts) throws IOException {
+        out.writeInt(counts.size());
+        for (int slot = 0; slot < counts.capacity(); slot++)
+            if (!counts.isFree(slot)) {
+                out.writeInt(counts.keyAt(slot));
+                out.writeInt(counts.valueAt(slot));
+            }
+    }
+
+    private static byte[] writeClassified() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(accountMsgIds.size());
+        for (Long account : accountMsgIds.keySet()) {
+            Set<String> msgids = accountMsgIds.get(account);
+            out.writeLong(account);
+            out.writeInt(msgids.size());
+            for (String msgid : msgids)
+                writeString(out, msgid);
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null)
+            out.writeInt(-1);
+        else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void export(@NonNull Context context, @NonNull OutputStream os) throws IOException {
+        lock.writeLock().lock();
+        try {
+            load(context);
+
+            // Materialize all accounts
+            for (Long account : new ArrayList<>(pendingModels.keySet()))
+                getModel(account);
+
+            Log.i("Classifier export");
+            try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(os)))) {
+                writer.beginObject();
+
+                Log.i("Classifier write version=" + VERSION);
+                writer.name("version").value(VERSION);
+
+                writer.name("classes");
+                writer.beginArray();
+                for (Long account : accountModel.keySet()) {
+                    Model model = accountModel.get(account);
+                    for (int id = 0; id < model.classNames.size(); id++) {
+                        if (model.classNames.get(id) == null)
+                            continue;
                         writer.beginObject();
-                        for (int key : f.after.keySet())
-                            writer.name(Integer.toString(key)).value(f.after.get(key));
+                        writer.name("account").value(account);
+                        writer.name("id").value(id);
+                        writer.name("name").value(model.classNames.get(id));
                         writer.endObject();
+                    }
+                }
+                writer.endArray();
 
-                        writer.endObject();
+                writer.name("messages");
+                writer.beginArray();
+                for (Long account : accountModel.keySet()) {
+                    IntIntMap classMessages = accountModel.get(account).classMessages;
+                    for (int slot = 0; slot < classMessages.capacity(); slot++)
+                        if (!classMessages.isFree(slot)) {
+                            writer.beginObject();
+                            writer.name("account").value(account);
+                            writer.name("class").value(classMessages.keyAt(slot));
+                            writer.name("count").value(classMessages.valueAt(slot));
+                            writer.endObject();
+                        }
+                }
+                writer.endArray();
+
+                writer.name("words");
+                writer.beginArray();
+                for (Long account : accountModel.keySet()) {
+                    IntObjectMap<Frequency[]> words = accountModel.get(account).words;
+                    for (int slot = 0; slot < words.capacity(); slot++) {
+                        if (words.isFree(slot))
+                            continue;
+                        int word = words.keyAt(slot);
+                        Frequency[] classFrequency = words.valueAt(slot);
+                        for (int clazz = 0; clazz < classFrequency.length; clazz++) {
+                            Frequency f = classFrequency[clazz];
+                            if (f == null)
+                                continue;
+
+                            writer.beginObject();
+
+                            writer.name("account").value(account);
+                            writer.name("word").value(word);
+                            writer.name("class").value(clazz);
+                            writer.name("count").value(f.count);
+                            writer.name("dup").value(f.duplicates);
+
+                            writer.name("before");
+                            writer.beginObject();
+                            for (int b = 0; b < f.before.capacity(); b++)
+                                if (!f.before.isFree(b))
+                                    writer.name(Integer.toString(f.before.keyAt(b))).value(f.before.valueAt(b));
+                            writer.endObject();
+
+                            writer.name("after");
+                            writer.beginObject();
+                            for (int a = 0; a < f.after.capacity(); a++)
+                                if (!f.after.isFree(a))
+                                    writer.name(Integer.toString(f.after.keyAt(a))).value(f.after.valueAt(a));
+                            writer.endObject();
+
+                            writer.endObject();
+                        }
                     }
                 }
-            writer.endArray();
+                writer.endArray();
 
-            writer.name("list");
-            writer.beginArray();
-            for (String word : wordIndex.keySet())
-                writer.value(word);
-            writer.endArray();
+                writer.name("list");
+                writer.beginArray();
+                for (String word : wordList)
+                    writer.value(word);
+                writer.endArray();
 
-            writer.name("classified");
-            writer.beginArray();
-            for (Long account : accountMsgIds.keySet()) {
-                writer.beginObject();
-                writer.name("account").value(account);
-                writer.name("messages");
+                writer.name("classified");
                 writer.beginArray();
-                for (String msgid : accountMsgIds.get(account))
-                    writer.value(msgid);
+                for (Long account : accountMsgIds.keySet()) {
+                    writer.beginObject();
+                    writer.name("account").value(account);
+                    writer.name("messages");
+                    writer.beginArray();
+                    for (String msgid : accountMsgIds.get(account))
+                        writer.value(msgid);
+                    writer.endArray();
+                    writer.endObject();
+                }
                 writer.endArray();
+
                 writer.endObject();
             }
-            writer.endArray();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void load(@NonNull Context context) {
+        if (loaded || dirty)
+            return;
 
-            writer.endObject();
+        lock.writeLock().lock();
+        try {
+            if (loaded || dirty)
+                return;
+
+            clear(context);
+            File file = getFile(context);
+            File last = getBackupFile(file);
+            if (!file.exists() && last.exists())
+                file = last; // Interrupted replace
+            if (!file.exists()) {
+                // Import legacy JSON data
+                file = getJsonFile(context, false);
+                File backup = getJsonFile(context, true);
+                if (backup.exists())
+                    file = backup;
+            }
+            try {
+                if (file.equals(getFile(context)))
+                    _load(file);
+                else if (file.equals(last))
+                    loadBackup(last);
+                else {
+                    _import(file);
+                    if (file.exists())
+                        dirty = true;
+                }
+            } catch (Throwable ex) {
+                Log.e(ex);
+                clear(context);
+
+                // Fall back to the last good file
+                if (!file.equals(last) && last.exists())
+                    try {
+                        loadBackup(last);
+                    } catch (Throwable exex) {
+                        Log.e(exex);
+                        clear(context);
+                    }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        backup.delete();
+    private static void loadBackup(File backup) throws IOException {
+        Log.w("Classifier loading backup " + backup);
+        _load(backup);
 
+        // The sections are located in the backup file, so write a complete new file
+        sections.clear();
+        dirty = true;
+    }
+
+    private static void _load(File file) throws IOException {
+        Log.i("Classifier read " + file);
+        long start = new Date().getTime();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after closing the channel
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int magic = buffer.getInt(0);
+            int version = buffer.getInt(4);
+            if (magic != BINARY_MAGIC || version != BINARY_VERSION)
+                throw new IOException("Classifier magic=" + magic + " version=" + version);
+
+            buffer.position((int) buffer.getLong(8));
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++)
+                sections.add(new Section(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getInt()));
+
+            for (Section section : sections) {
+                ByteBuffer data = buffer.duplicate();
+                data.limit((int) (section.offset + section.length));
+                data.position((int) section.offset);
+                data = data.slice();
+
+                switch (section.type) {
+                    case SECTION_WORDS:
+                        int from = data.getInt();
+                        int words = data.getInt();
+                        if (from != wordList.size())
+                            throw new IOException("Classifier words from=" + from + " size=" + wordList.size());
+                        for (int w = 0; w < words; w++)
+                            addWord(readString(data));
+                        break;
+
+                    case SECTION_MODEL:
+                        // Decoded on first use
+                        pendingModels.put(section.key, data);
+                        break;
+
+                    case SECTION_CLASSIFIED:
+                        int accounts = data.getInt();
+                        for (int a = 0; a < accounts; a++) {
+                            long account = data.getLong();
+                            int msgids = data.getInt();
+                            for (int m = 0; m < msgids; m++)
+                                addClassified(account, readString(data));
+                        }
+                        break;
+                }
+            }
+        }
+
+        wordsSaved = wordList.size();
+        classifiedDirty = false;
+
+        loaded = true;
         dirty = false;
 
         long elapsed = new Date().getTime() - start;
-        Log.i("Classifier data saved elapsed=" + elapsed + " size=" + file.length());
+        Log.i("Classifier data loaded elapsed=" + elapsed +
+                " words=" + wordList.size() + " accounts=" + pendingModels.size());
     }
 
-    private static synchronized void load(@NonNull Context context) {
-        if (loaded || dirty)
-            return;
+    private static Model readModel(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        Model model = new Model();
 
-        clear(context);
-        File file = getFile(context, false);
-        File backup = getFile(context, true);
-        if (backup.exists())
-            file = backup;
-        try {
-            _load(file);
-        } catch (Throwable ex) {
-            Log.e(ex);
-            file.delete();
-            clear(context);
+        int classes = data.getInt();
+        for (int id = 0; id < classes; id++) {
+            String name = readString(data);
+            if (name != null)
+                model.setClass(id, name);
+        }
+
+        int messages = data.getInt();
+        for (int i = 0; i < messages; i++) {
+            int clazz = data.getInt();
+            int count = data.getInt();
+            model.classMessages.put(clazz, count);
         }
+
+        int words = data.getInt();
+        for (int i = 0; i < words; i++) {
+            int word = data.getInt();
+            int count = data.getInt();
+            for (int c = 0; c < count; c++) {
+                int clazz = data.getInt();
+                Frequency f = new Frequency();
+                f.count = data.getInt();
+                f.duplicates = data.getInt();
+                readCounts(data, f.before);
+                readCounts(data, f.after);
+                model.setFrequency(word, clazz, f);
+            }
+        }
+
+        return model;
     }
 
-    private static synchronized void _load(File file) throws IOException {
-        Log.i("Classifier read " + file);
+    private static void readCounts(ByteBuffer data, IntIntMap counts) {
+        int count = data.getInt();
+        for (int i = 0; i < count; i++) {
+            int key = data.getInt();
+            int value = data.getInt();
+            counts.put(key, value);
+        }
+    }
+
+    private static void _import(File file) throws IOException {
+        Log.i("Classifier import " + file);
         long start = new Date().getTime();
         int version = 0;
         if (file.exists())
@@ -572,11 +1161,41 @@ public class MessageClassifier {
                             Log.i("Classifier read version=" + version);
                             break;
 
+                        case "classes":
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                Long account = null;
+                                Integer id = null;
+                                String name = null;
+
+                                reader.beginObject();
+                                while (reader.hasNext())
+                                    switch (reader.nextName()) {
+                                        case "account":
+                                            account = reader.nextLong();
+                                            break;
+                                        case "id":
+                                            id = reader.nextInt();
+                                            break;
+                                        case "name":
+                                            name = reader.nextString();
+                                            break;
+                                    }
+                                reader.endObject();
+
+                                if (account == null || id == null || name == null)
+                                    continue;
+
+                                getModel(account).setClass(id, name);
+                            }
+                            reader.endArray();
+                            break;
+
                         case "messages":
                             reader.beginArray();
                             while (reader.hasNext()) {
                                 Long account = null;
-                                String clazz = null;
+                                Integer clazz = null;
                                 Integer count = null;
 
                                 reader.beginObject();
@@ -586,7 +1205,7 @@ public class MessageClassifier {
                                             account = reader.nextLong();
                                             break;
                                         case "class":
-                                            clazz = reader.nextString();
+                                            clazz = readClass(reader, account);
                                             break;
                                         case "count":
                                             count = reader.nextInt();
@@ -597,9 +1216,7 @@ public class MessageClassifier {
                                 if (account == null || clazz == null || count == null)
                                     continue;
 
-                                if (!classMessages.containsKey(account))
-                                    classMessages.put(account, new HashMap<>());
-                                classMessages.get(account).put(clazz, count);
+                                getModel(account).classMessages.put(clazz, count);
                             }
                             reader.endArray();
                             break;
@@ -609,7 +1226,7 @@ public class MessageClassifier {
                             while (reader.hasNext()) {
                                 Long account = null;
                                 Integer word = null;
-                                String clazz = null;
+                                Integer clazz = null;
                                 Frequency f = new Frequency();
 
                                 reader.beginObject();
@@ -625,7 +1242,7 @@ public class MessageClassifier {
                                                 word = getWordIndex(reader.nextString());
                                             break;
                                         case "class":
-                                            clazz = reader.nextString();
+                                            clazz = readClass(reader, account);
                                             break;
                                         case "count":
                                             f.count = reader.nextInt();
@@ -659,16 +1276,7 @@ public class MessageClassifier {
                                 if (account == null || word == null || clazz == null)
                                     continue;
 
-                                if (!wordClassFrequency.containsKey(account))
-                                    wordClassFrequency.put(account, new HashMap<>());
-
-                                Map<String, Frequency> classFrequency = wordClassFrequency.get(account).get(word);
-                                if (classFrequency == null) {
-                                    classFrequency = new HashMap<>();
-                                    wordClassFrequency.get(account).put(word, classFrequency);
-                                }
-
-                                classFrequency.put(clazz, f);
+                                getModel(account).setFrequency(word, clazz, f);
                             }
                             reader.endArray();
                             break;
@@ -676,7 +1284,7 @@ public class MessageClassifier {
                         case "list":
                             reader.beginArray();
                             while (reader.hasNext())
-                                wordIndex.put(reader.nextString(), wordIndex.size());
+                                addWord(reader.nextString());
                             reader.endArray();
                             break;
 
@@ -704,7 +1312,8 @@ public class MessageClassifier {
                                 if (account == null)
                                     continue;
 
-                                accountMsgIds.put(account, msgids);
+                                for (String msgid : msgids)
+                                    addClassified(account, msgid);
                             }
                             reader.endArray();
                             break;
@@ -712,116 +1321,200 @@ public class MessageClassifier {
                 reader.endObject();
             }
 
-        reduce();
+        for (Long account : accountModel.keySet())
+            reduce(account, accountModel.get(account));
 
         loaded = true;
         dirty = false;
 
         long elapsed = new Date().getTime() - start;
-        Log.i("Classifier data loaded elapsed=" + elapsed + " words=" + wordIndex.size());
+        Log.i("Classifier data imported elapsed=" + elapsed + " words=" + wordList.size());
     }
 
-    private static void reduce() {
-        Log.i("Classifier reduce");
-        for (long account : wordClassFrequency.keySet()) {
-            Map<String, Integer> max = new HashMap<>();
-            Map<String, Long> total = new HashMap<>();
-            Map<String, Integer> count = new HashMap<>();
+    private static Object getAccountLock(long account) {
+        synchronized (accountLocks) {
+            Object lock = accountLocks.get(account);
+            if (lock == null) {
+                lock = new Object();
+                accountLocks.put(account, lock);
+            }
+            return lock;
+        }
+    }
 
-            for (int word : wordClassFrequency.get(account).keySet())
-                for (String clazz : wordClassFrequency.get(account).get(word).keySet()) {
-                    int f = wordClassFrequency.get(account).get(word).get(clazz).count;
+    private static Model getModel(long account) {
+        synchronized (accountModel) {
+            Model model = accountModel.get(account);
+            if (model == null) {
+                ByteBuffer pending = pendingModels.remove(account);
+                if (pending == null)
+                    model = new Model();
+                else {
+                    model = readModel(pending);
+                    reduce(account, model);
+                }
+                accountModel.put(account, model);
+            }
+            return model;
+        }
+    }
 
-                    Integer m = max.get(clazz);
-                    if (m == null || f > m)
-                        max.put(clazz, f);
+    private static Integer readClass(JsonReader reader, Long account) throws IOException {
+        // Version 4 and before stored class names, version 5 stores class ids
+        if (reader.peek() == JsonToken.STRING) {
+            String name = reader.nextString();
+            return (account == null ? null : getModel(account).getClassId(name));
+        } else
+            return reader.nextInt();
+    }
 
-                    if (!total.containsKey(clazz))
-                        total.put(clazz, 0L);
-                    total.put(clazz, total.get(clazz) + f);
+    private static void reduce(long account, Model model) {
+        Log.i("Classifier reduce account=" + account);
+        int classes = model.classNames.size();
+        int[] max = new int[classes];
+        long[] total = new long[classes];
+        int[] count = new int[classes];
 
-                    if (!count.containsKey(clazz))
-                        count.put(clazz, 0);
-                    count.put(clazz, count.get(clazz) + 1);
-                }
+        for (int slot = 0; slot < model.words.capacity(); slot++) {
+            if (model.words.isFree(slot))
+                continue;
+            Frequency[] classFrequency = model.words.valueAt(slot);
+            for (int clazz = 0; clazz < classFrequency.length; clazz++) {
+                if (classFrequency[clazz] == null)
+                    continue;
+
+                int f = classFrequency[clazz].count;
+                if (f > max[clazz])
+                    max[clazz] = f;
+                total[clazz] += f;
+                count[clazz]++;
+            }
+        }
 
-            for (String clazz : max.keySet())
-                Log.i("Classifier max " + account + ":" + clazz + "=" + max.get(clazz));
+        for (int clazz = 0; clazz < classes; clazz++)
+            if (count[clazz] > 0)
+                Log.i("Classifier max " + account + ":" + model.classNames.get(clazz) + "=" + max[clazz]);
 
-            int dropped = 0;
-            for (int word : wordClassFrequency.get(account).keySet())
-                for (String clazz : new ArrayList<>(wordClassFrequency.get(account).get(word).keySet())) {
-                    long m = max.get(clazz);
-                    long avg = total.get(clazz) / count.get(clazz);
-                    Frequency freq = wordClassFrequency.get(account).get(word).get(clazz);
-                    if (freq.count < m / 5000) {
-                        dropped++;
-                        wordClassFrequency.get(account).get(word).remove(clazz);
-                    } else if (freq.count < avg / 2 && false) {
+        int dropped = 0;
+        List<Integer> empty = new ArrayList<>();
+        for (int slot = 0; slot < model.words.capacity(); slot++) {
+            if (model.words.isFree(slot))
+                continue;
+            int word = model.words.keyAt(slot);
+            Frequency[] classFrequency = model.words.valueAt(slot);
+            boolean used = false;
+            for (int clazz = 0; clazz < classFrequency.length; clazz++) {
+                Frequency freq = classFrequency[clazz];
+                if (freq == null)
+                    continue;
+
+                long m = max[clazz];
+                long avg = total[clazz] / count[clazz];
+                if (freq.count < m / 5000) {
+                    dropped++;
+                    classFrequency[clazz] = null;
+                } else {
+                    used = true;
+                    if (freq.count < avg / 2 && false) {
                         dropped++;
                         Log.i("Classifier dropping account=" + account +
                                 " word=" + word + " class=" + clazz + " freq=" + freq.count + " avg=" + avg);
                     }
                 }
-            Log.i("Classifier dropped words=" + dropped);
-
-            // Source 47 MB
-
-            // max/10 = 3 MB
-            // max/20 = 4.4 MB
-            // max/50 = 6.5 MB
-            // max/100 = 6.5 MB
-            // max/200 = 11.5 MB
-            // max/500 = 15 MB
-            // max/1000 = 18 MB
-            // max/2000 = 22 MB
-            // max/5000 = 26 MB
-
-            // avg/1 = 21.3
-            // avg/2 = 25.5
-            // avg/3 = 29.0
-            // avg/5 = 34.6
-
-            // ba/5  = 27.2
-            // ba/10 = 29.3
-            // ba/20 = 31.5
-
-            // avg/2 + ba/20 = 10 MB
+            }
+            if (!used)
+                empty.add(word);
         }
+        for (int word : empty)
+            model.words.remove(word);
+        Log.i("Classifier dropped words=" + dropped + " empty=" + empty.size());
+
+        // Source 47 MB
+
+        // max/10 = 3 MB
+        // max/20 = 4.4 MB
+        // max/50 = 6.5 MB
+        // max/100 = 6.5 MB
+        // max/200 = 11.5 MB
+        // max/500 = 15 MB
+        // max/1000 = 18 MB
+        // max/2000 = 22 MB
+        // max/5000 = 26 MB
+
+        // avg/1 = 21.3
+        // avg/2 = 25.5
+        // avg/3 = 29.0
+        // avg/5 = 34.6
+
+        // ba/5  = 27.2
+        // ba/10 = 29.3
+        // ba/20 = 31.5
+
+        // avg/2 + ba/20 = 10 MB
     }
 
-    static synchronized void cleanup(@NonNull Context context) {
+    static void cleanup(@NonNull Context context) {
+        lock.writeLock().lock();
         try {
-            load(context);
+            try {
+                load(context);
+
+                // isClassified synchronizes on accountMsgIds only
+                Map<Long, List<String>> snapshot = new HashMap<>();
+                synchronized (accountMsgIds) {
+                    for (Long account : accountMsgIds.keySet())
+                        snapshot.put(account, new ArrayList<>(accountMsgIds.get(account)));
+                }
 
-            DB db = DB.getInstance(context);
-            for (Long account : accountMsgIds.keySet()) {
-                List<String> msgids = accountMsgIds.get(account);
-                Log.i("Classifier cleanup account=" + account + " count=" + msgids.size());
-                for (String msgid : new ArrayList<>(msgids)) {
-                    List<EntityMessage> messages = db.message().getMessagesByMsgId(account, msgid);
-                    if (messages != null && messages.size() == 0) {
-                        Log.i("Classifier removing msgid=" + msgid);
-                        msgids.remove(msgid);
-                        dirty = true;
+                DB db = DB.getInstance(context);
+                for (Long account : snapshot.keySet()) {
+                    List<String> msgids = snapshot.get(account);
+                    Log.i("Classifier cleanup account=" + account + " count=" + msgids.size());
+                    for (String msgid : msgids) {
+                        List<EntityMessage> messages = db.message().getMessagesByMsgId(account, msgid);
+                        if (messages != null && messages.size() == 0) {
+                            Log.i("Classifier removing msgid=" + msgid);
+                            synchronized (accountMsgIds) {
+                                Set<String> classified = accountMsgIds.get(account);
+                                if (classified != null)
+                                    classified.remove(msgid);
+                            }
+                            classifiedDirty = true;
+                            dirty = true;
+                        }
                     }
                 }
-            }
 
-            if (dirty)
-                save(context);
-        } catch (Throwable ex) {
-            Log.e(ex);
+                if (dirty)
+                    save(context);
+            } catch (Throwable ex) {
+                Log.e(ex);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    static synchronized void clear(@NonNull Context context) {
-        accountMsgIds.clear();
-        classMessages.clear();
-        wordClassFrequency.clear();
-        wordIndex.clear();
-        dirty = true;
-        Log.i("Classifier data cleared");
+    static void clear(@NonNull Context context) {
+        lock.writeLock().lock();
+        try {
+            synchronized (accountMsgIds) {
+                accountMsgIds.clear();
+            }
+            accountModel.clear();
+            pendingModels.clear();
+            sections.clear();
+            wordsSaved = 0;
+            synchronized (wordList) {
+                wordIndex.clear();
+                wordList.clear();
+                generation++;
+            }
+            dirty = true;
+            Log.i("Classifier data cleared");
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     static boolean isEnabled(@NonNull Context context) {
@@ -829,31 +1522,130 @@ public class MessageClassifier {
         return prefs.getBoolean("classification", false);
     }
 
-    static File getFile(@NonNull Context context, boolean backup) {
+    static File getFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), "classifier.bin");
+    }
+
+    private static File getBackupFile(@NonNull File file) {
+        return new File(file.getAbsolutePath() + ".bak");
+    }
+
+    private static File getJsonFile(@NonNull Context context, boolean backup) {
         return new File(context.getFilesDir(),
                 backup ? "classifier.backup" : "classifier.json");
     }
 
     static long getSize(Context context) {
         try {
-            return getFile(context, false).length();
+            return getFile(context).length();
         } catch (Throwable ignored) {
             return -1L;
         }
     }
 
+    private static class Features {
+        private final EntityMessage message;
+        private final int generation;
+        private final int texts;
+        private final int[] words;
+
+        private Features(EntityMessage message, int generation, int texts, int[] words) {
+            this.message = message;
+            this.generation = generation;
+            this.texts = texts;
+            this.words = words;
+        }
+    }
+
+    private static class Section {
+        private final int type;
+        private final long key;
+        private final long offset;
+        private final int length;
+
+        private Section(int type, long key, long offset, int length) {
+            this.type = type;
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Model {
+        private boolean dirty = false;
+
+        // Class names are interned per account, ids index the frequency arrays
+        private final List<String> classNames = new ArrayList<>();
+        private final Map<String, Integer> classIds = new HashMap<>();
+        private final IntIntMap classMessages = new IntIntMap();
+        private final IntObjectMap<Frequency[]> words = new IntObjectMap<>(1024);
+
+        private int getClassId(String name) {
+            Integer id = classIds.get(name);
+            if (id == null) {
+                id = classNames.size();
+                classNames.add(name);
+                classIds.put(name, id);
+            }
+            return id;
+        }
+
+        private void setClass(int id, String name) {
+            while (classNames.size() <= id)
+                classNames.add(null);
+            classNames.set(id, name);
+            classIds.put(name, id);
+        }
+
+        private void setFrequency(int word, int clazz, Frequency f) {
+            Frequency[] classFrequency = words.get(word);
+            if (classFrequency == null || classFrequency.length <= clazz) {
+                Frequency[] grown = new Frequency[clazz + 1];
+                if (classFrequency != null)
+                    System.arraycopy(classFrequency, 0, grown, 0, classFrequency.length);
+                classFrequency = grown;
+                words.put(word, classFrequency);
+            }
+            classFrequency[clazz] = f;
+        }
+
+        private void removeClass(int clazz) {
+            classMessages.remove(clazz);
+            for (int slot = 0; slot < words.capacity(); slot++)
+                if (!words.isFree(slot)) {
+                    Frequency[] classFrequency = words.valueAt(slot);
+                    if (clazz < classFrequency.length)
+                        classFrequency[clazz] = null;
+                }
+        }
+    }
+
     private static class State {
-        private final List<Integer> words = new ArrayList<>();
-        private final Map<String, Stat> classStats = new HashMap<>();
+        private int[] words = new int[64];
+        private int size = 0;
+        private final IntObjectMap<Stat> classStats = new IntObjectMap<>();
+
+        private void add(int word) {
+            if (size == words.length)
+                words = Arrays.copyOf(words, size * 2);
+            words[size++] = word;
+        }
+
+        private int indexOf(int word) {
+            for (int i = 0; i < size; i++)
+                if (words[i] == word)
+                    return i;
+            return -1;
+        }
     }
 
     private static class Frequency {
         private int count = 0;
         private int duplicates = 0;
-        private Map<Integer, Integer> before = new HashMap<>();
-        private Map<Integer, Integer> after = new HashMap<>();
+        private final IntIntMap before = new IntIntMap();
+        private final IntIntMap after = new IntIntMap();
 
-        private void add(Integer b, Integer a, int c, boolean duplicate) {
+        private void add(int b, int a, int c, boolean duplicate) {
             if (count + c < 0)
                 return;
 
@@ -862,15 +1654,11 @@ public class MessageClassifier {
             if (duplicate)
                 duplicates += c;
 
-            if (b != null) {
-                Integer x = before.get(b);
-                before.put(b, (x == null ? 0 : x) + c);
-            }
+            if (b != NONE)
+                before.add(b, c);
 
-            if (a != null) {
-                Integer x = after.get(a);
-                after.put(a, (x == null ? 0 : x) + c);
-            }
+            if (a != NONE)
+                after.add(a, c);
         }
     }
 
@@ -191,6 +191,7 @@ public class MessageHelper {
     private static final int MAX_META_EXCERPT = 1024; // characters
     private static final int FORMAT_FLOWED_LINE_LENGTH = 72; // characters
     private static final int MAX_DIAGNOSTIC = 250; // characters
+    private static final int MAX_SQL_PARAMETERS = 450; // https://www.sqlite.org/limits.html
     private static final int DKIM_MIN_TEXT = 100; // characters
     private static final int DKIM_MIN_KEY_LENGTH = 1024; //  bits
 
@@ -873,12 +874,16 @@ public class MessageHelper {
             return addresses;
 
         // https://en.wikipedia.org/wiki/International_email
-        for (Address address : addresses) {
-            String email = ((InternetAddress) address).getAddress();
+        // Decoded addresses are shared
+        Address[] result = new Address[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            InternetAddress address = (InternetAddress) ((InternetAddress) addresses[i]).clone();
+            String email = address.getAddress();
             email = punyCode(email);
-            ((InternetAddress) address).setAddress(email);
+            address.setAddress(email);
+            result[i] = address;
         }
-        return addresses;
+        return result;
     }
 
     static void build(Context context, EntityMessage message, List<EntityAttachment> attachments, EntityIdentity identity, boolean send, MimeMessage imessage) throws IOException, MessagingException {
@@ -1823,9 +1828,8 @@ public class MessageHelper {
             all.add(msgid);
         all.addAll(refs);
 
-        // https://www.sqlite.org/limits.html
-        if (all.size() > 450)
-            all = all.subList(0, 450);
+        if (all.size() > MAX_SQL_PARAMETERS)
+            all = all.subList(0, MAX_SQL_PARAMETERS);
 
         int thread_range = prefs.getInt("thread_range", MessageHelper.DEFAULT_THREAD_RANGE);
         int range = (int) Math.pow(2, thread_range);
@@ -1887,19 +1891,15 @@ public class MessageHelper {
         if (thread == null)
             thread = account + ":" + getHash() + ":" + uid;
 
-        // Sent before
-        for (TupleThreadInfo info : infos)
-            if (info.isReferencing(msgid) && !thread.equals(info.thread)) {
-                Log.w("Updating before thread from " + info.thread + " to " + thread);
-                db.message().updateMessageThread(account, info.thread, thread, null);
-            }
-
-        // Sent after
+        // Sent before, sent after
+        List<String> merge = new ArrayList<>();
         for (TupleThreadInfo info : infos)
-            if (info.isReferenced(msgid) && !thread.equals(info.thread)) {
-                Log.w("Updating after thread from " + info.thread + " to " + thread);
-                db.message().updateMessageThread(account, info.thread, thread, null);
-            }
+            if ((info.isReferencing(msgid) || info.isReferenced(msgid)) &&
+                    !TextUtils.isEmpty(info.thread) && !thread.equals(info.thread) &&
+                    !merge.contains(info.thread))
+                merge.add(info.thread);
+        if (merge.size() > 0)
+            mergeThreads(db, account, merge, thread, null);
 
         boolean subject_threading = prefs.getBoolean("subject_threading", false);
         if (subject_threading && !isReport()) {
@@ -1908,17 +1908,27 @@ public class MessageHelper {
             long since = new Date().getTime() - MAX_SUBJECT_AGE * 3600 * 1000L;
             if (!TextUtils.isEmpty(sender) && !TextUtils.isEmpty(subject)) {
                 List<EntityMessage> subjects = db.message().getMessagesBySubject(account, sender, subject, since);
+                List<String> similar = new ArrayList<>();
                 for (EntityMessage message : subjects)
-                    if (!thread.equals(message.thread)) {
-                        Log.w("Updating subject thread from " + message.thread + " to " + thread);
-                        db.message().updateMessageThread(message.account, message.thread, thread, since);
-                    }
+                    if (!TextUtils.isEmpty(message.thread) && !thread.equals(message.thread) &&
+                            !similar.contains(message.thread))
+                        similar.add(message.thread);
+                if (similar.size() > 0)
+                    mergeThreads(db, account, similar, thread, since);
             }
         }
 
         return thread;
     }
 
+    private static void mergeThreads(DB db, long account, List<String> olds, String thread, Long since) {
+        int count = 0;
+        for (List<String> chunk : Helper.chunkList(olds, MAX_SQL_PARAMETERS))
+            count += db.message().updateMessageThreads(account, chunk, thread, since);
+        Log.w("Updated threads " + TextUtils.join(",", olds) + " to " + thread +
+                " since=" + (since == null ? null : new Date(since)) + " count=" + count);
+    }
+
     String[] getLabels() throws MessagingException {
         //ensureMessage(false);
 
@@ -61,6 +61,7 @@ import com.sun.mail.iap.ProtocolException;
 import com.sun.mail.iap.Response;
 import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.IdleManager;
 import com.sun.mail.imap.protocol.IMAPProtocol;
 import com.sun.mail.imap.protocol.IMAPResponse;
 
@@ -83,6 +84,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -98,6 +100,7 @@ import javax.mail.MessagingException;
 import javax.mail.NoSuchProviderException;
 import javax.mail.Quota;
 import javax.mail.ReadOnlyFolderException;
+import javax.mail.Session;
 import javax.mail.Store;
 import javax.mail.StoreClosedException;
 import javax.mail.event.FolderAdapter;
@@ -122,6 +125,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
     private boolean isInCar = false;
     private boolean isOptimizing = false;
 
+    private IdleManager idleManager = null;
+
     private MutableLiveData<Boolean> foreground = new MutableLiveData<>();
     private final Map<Long, Core.State> coreStates = new Hashtable<>();
     private final MutableLiveData<ConnectionHelper.NetworkState> liveNetworkState = new MutableLiveData<>();
@@ -173,7 +178,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
             "prefer_ip4", "bind_socket", "standalone_vpn", "tcp_keep_alive", "ssl_harden", "ssl_harden_strict", "cert_strict", // force reconnect
             "experiments", "debug", "protocol", // force reconnect
             "auth_plain", "auth_login", "auth_ntlm", "auth_sasl", "auth_apop", // force reconnect
-            "keep_alive_poll", "empty_pool", "idle_done", // force reconnect
+            "keep_alive_poll", "empty_pool", "idle_done", "idle_manager", // force reconnect
             "exact_alarms" // force schedule
     ));
 
@@ -1020,6 +1025,13 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
         liveAccountNetworkState.postDestroy();
 
+        synchronized (this) {
+            if (idleManager != null) {
+                idleManager.stop();
+                idleManager = null;
+            }
+        }
+
         TTSHelper.shutdown();
 
         try {
@@ -1511,6 +1523,21 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
         return builder;
     }
 
+    private synchronized IdleManager getIdleManager() {
+        try {
+            if (idleManager == null || idleManager.isStopped()) {
+                EntityLog.log(this, "Starting IDLE manager");
+                idleManager = new IdleManager(
+                        Session.getInstance(new Properties(), null),
+                        Helper.getBackgroundExecutor(0, "idle"));
+            }
+            return idleManager;
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return null;
+        }
+    }
+
     private void monitorAccount(
             final EntityAccount account, final Core.State state,
             final boolean sync, final boolean force) throws NoSuchProviderException {
@@ -1558,6 +1585,7 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                 boolean subscriptions = prefs.getBoolean("subscriptions", false);
                 boolean keep_alive_poll = prefs.getBoolean("keep_alive_poll", false);
                 boolean empty_pool = prefs.getBoolean("empty_pool", true);
+                boolean idle_manager = prefs.getBoolean("idle_manager", false);
                 boolean debug = (prefs.getBoolean("debug", false) || BuildConfig.DEBUG);
 
                 final EmailService iservice = new EmailService(
@@ -1565,7 +1593,9 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                 iservice.setPartialFetch(account.partial_fetch);
                 iservice.setRawFetch(account.raw_fetch);
                 iservice.setIgnoreBodyStructureSize(account.ignore_size);
-                if (account.protocol != EntityAccount.TYPE_IMAP)
+                if (account.protocol == EntityAccount.TYPE_IMAP)
+                    iservice.setUseSocketChannels(idle_manager);
+                else
                     iservice.setLeaveOnServer(account.leave_on_server);
 
                 if (account.keep_alive_noop) {
@@ -1655,6 +1685,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                 final long group = Thread.currentThread().getId();
                 final Map<EntityFolder, IMAPFolder> mapFolders = new LinkedHashMap<>();
                 List<Thread> idlers = new ArrayList<>();
+                final IdleManager imanager = (idle_manager ? getIdleManager() : null);
+                List<IMAPFolder> watched = new ArrayList<>();
                 try {
                     // Initiate connection
                     EntityLog.log(this, EntityLog.Type.Account, account,
@@ -1985,44 +2017,69 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                             });
 
                             // Idle folder
-                            Thread idler = new Thread(new RunnableEx("idle") {
-                                @Override
-                                public void delegate() {
-                                    try {
-                                        Log.i(folder.name + " start idle");
-                                        while (ifolder.isOpen() && state.isRunning() && state.isRecoverable()) {
-                                            Log.i(folder.name + " do idle");
-                                            ifolder.idle(false);
-                                            state.activity();
-                                        }
-                                    } catch (Throwable ex) {
-                                        /*
-                                            javax.mail.FolderClosedException: * BYE Jakarta Mail Exception: java.net.SocketTimeoutException: Read timed out
-                                                at com.sun.mail.imap.IMAPFolder.handleIdle(SourceFile:252)
-                                                at com.sun.mail.imap.IMAPFolder.idle(SourceFile:7)
-                                                at eu.faircode.email.ServiceSynchronize$21.delegate(SourceFile:78)
-                                                at eu.faircode.email.RunnableEx.run(SourceFile:1)
-                                                at java.lang.Thread.run(Thread.java:1012)
-                                            ... javax.mail.StoreClosedException: NOOP INBOX
-                                            javax.mail.StoreClosedException: NOOP INBOX
-                                                at eu.faircode.email.ServiceSynchronize.monitorAccount(SourceFile:151)
-                                                at eu.faircode.email.ServiceSynchronize.access$1200(Unknown Source:0)
-                                                at eu.faircode.email.ServiceSynchronize$4$2.delegate(SourceFile:15)
-                                                at eu.faircode.email.RunnableEx.run(SourceFile:1)
-                                                at java.lang.Thread.run(Thread.java:1012)
-                                         */
+                            if (imanager != null && IdleManager.canWatch(ifolder)) {
+                                // Shared selector thread instead of a blocking thread per folder
+                                Log.i(folder.name + " watch idle");
+                                imanager.watch(ifolder, new IdleManager.Callback() {
+                                    @Override
+                                    public boolean isActive(Folder f) {
+                                        return (f.isOpen() && state.isRunning() && state.isRecoverable());
+                                    }
+
+                                    @Override
+                                    public void onActivity(Folder f) {
+                                        state.activity();
+                                    }
+
+                                    @Override
+                                    public void onError(Folder f, Throwable ex) {
                                         Log.e(folder.name, ex);
                                         EntityLog.log(ServiceSynchronize.this, EntityLog.Type.Account, folder,
                                                 account.name + "/" + folder.name + " idle " + Log.formatThrowable(ex, false));
                                         state.error(new FolderClosedException(ifolder, "IDLE", new Exception(ex)));
-                                    } finally {
-                                        Log.i(folder.name + " end idle");
                                     }
-                                }
-                            }, "idler." + folder.id);
-                            idler.setPriority(THREAD_PRIORITY_BACKGROUND);
-                            idler.start();
-                            idlers.add(idler);
+                                });
+                                watched.add(ifolder);
+                            } else {
+                                Thread idler = new Thread(new RunnableEx("idle") {
+                                    @Override
+                                    public void delegate() {
+                                        try {
+                                            Log.i(folder.name + " start idle");
+                                            while (ifolder.isOpen() && state.isRunning() && state.isRecoverable()) {
+                                                Log.i(folder.name + " do idle");
+                                                ifolder.idle(false);
+                                                state.activity();
+                                            }
+                                        } catch (Throwable ex) {
+                                            /*
+                                                javax.mail.FolderClosedException: * BYE Jakarta Mail Exception: java.net.SocketTimeoutException: Read timed out
+                                                    at com.sun.mail.imap.IMAPFolder.handleIdle(SourceFile:252)
+                                                    at com.sun.mail.imap.IMAPFolder.idle(SourceFile:7)
+                                                    at eu.faircode.email.ServiceSynchronize$21.delegate(SourceFile:78)
+                                                    at eu.faircode.email.RunnableEx.run(SourceFile:1)
+                                                    at java.lang.Thread.run(Thread.java:1012)
+                                                ... javax.mail.StoreClosedException: NOOP INBOX
+                                                javax.mail.StoreClosedException: NOOP INBOX
+                                                    at eu.faircode.email.ServiceSynchronize.monitorAccount(SourceFile:151)
+                                                    at eu.faircode.email.ServiceSynchronize.access$1200(Unknown Source:0)
+                                                    at eu.faircode.email.ServiceSynchronize$4$2.delegate(SourceFile:15)
+                                                    at eu.faircode.email.RunnableEx.run(SourceFile:1)
+                                                    at java.lang.Thread.run(Thread.java:1012)
+                                             */
+                                            Log.e(folder.name, ex);
+                                            EntityLog.log(ServiceSynchronize.this, EntityLog.Type.Account, folder,
+                                                    account.name + "/" + folder.name + " idle " + Log.formatThrowable(ex, false));
+                                            state.error(new FolderClosedException(ifolder, "IDLE", new Exception(ex)));
+                                        } finally {
+                                            Log.i(folder.name + " end idle");
+                                        }
+                                    }
+                                }, "idler." + folder.id);
+                                idler.setPriority(THREAD_PRIORITY_BACKGROUND);
+                                idler.start();
+                                idlers.add(idler);
+                            }
 
                             EntityOperation.sync(this, folder.id, false, force && !forced);
 
@@ -2077,6 +2134,11 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
                     final long serial = state.getSerial();
 
+                    // Index folders by id for dispatching operations
+                    final Map<Long, EntityFolder> folderById = new HashMap<>();
+                    for (EntityFolder folder : mapFolders.keySet())
+                        folderById.put(folder.id, folder);
+
                     Log.i(account.name + " observing operations");
                     getMainHandler().post(new RunnableEx("observe#start") {
                         @Override
@@ -2086,7 +2148,8 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
 
                             db.operation().liveOperations(account.id).observe(cowner.value, new Observer<List<TupleOperationEx>>() {
                                 private DutyCycle dc = new DutyCycle(account.name + " operations");
-                                private List<Long> handling = new ArrayList<>();
+                                // Operation ids are AUTOINCREMENT, so operations with a higher id than seen before are new
+                                private long watermark = -1;
                                 private final Map<TupleOperationEx.PartitionKey, List<TupleOperationEx>> partitions = new HashMap<>();
 
                                 private final PowerManager.WakeLock wlOperations = pm.newWakeLock(
@@ -2095,38 +2158,36 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                                 @Override
                                 public void onChanged(final List<TupleOperationEx> _operations) {
                                     // Get new operations
-                                    List<Long> all = new ArrayList<>();
+                                    long max = watermark;
                                     Map<Long, List<TupleOperationEx>> added = new LinkedHashMap<>();
-                                    for (TupleOperationEx op : _operations) {
-                                        all.add(op.id);
-                                        if (!handling.contains(op.id)) {
-                                            if (!added.containsKey(op.folder))
-                                                added.put(op.folder, new ArrayList<>());
-                                            added.get(op.folder).add(op);
+                                    for (TupleOperationEx op : _operations)
+                                        if (op.id > watermark) {
+                                            if (op.id > max)
+                                                max = op.id;
+                                            List<TupleOperationEx> ops = added.get(op.folder);
+                                            if (ops == null) {
+                                                ops = new ArrayList<>();
+                                                added.put(op.folder, ops);
+                                            }
+                                            ops.add(op);
                                         }
-                                    }
-                                    handling = all;
+                                    watermark = max;
 
                                     if (empty_pool && istore instanceof IMAPStore) {
                                         getMainHandler().removeCallbacks(purge);
-                                        if (handling.size() == 0)
+                                        if (_operations.size() == 0)
                                             getMainHandler().postDelayed(purge, PURGE_DELAY);
                                     }
 
                                     for (Long fid : added.keySet()) {
-                                        EntityFolder found = null;
-                                        for (EntityFolder f : mapFolders.keySet())
-                                            if (Objects.equals(fid, f.id)) {
-                                                found = f;
-                                                break;
-                                            }
+                                        EntityFolder found = folderById.get(fid);
                                         if (found == null) {
                                             Log.w(account.name + " folder not found operation=" + fid);
                                             continue;
                                         }
 
                                         final EntityFolder folder = found;
-                                        Log.i(account.name + "/" + folder.name + " queuing operations=" + added.size() +
+                                        Log.i(account.name + "/" + folder.name + " queuing operations=" + added.get(folder.id).size() +
                                                 " init=" + folder.initialize + " poll=" + folder.poll);
 
                                         // Partition operations by priority
@@ -2646,6 +2707,10 @@ public class ServiceSynchronize extends ServiceBase implements SharedPreferences
                     for (Thread idler : idlers)
                         state.join(idler);
                     idlers.clear();
+                    if (imanager != null)
+                        for (IMAPFolder ifolder : watched)
+                            imanager.unwatch(ifolder);
+                    watched.clear();
                 }
 
                 if (state.isRunning()) {
@@ -119,21 +119,33 @@ public class ViewModelMessages extends ViewModel {
                             .setPageSize(LOCAL_PAGE_SIZE)
                             .setMaxSize(MAX_CACHED_ITEMS)
                             .build();
-                    builder = new LivePagedListBuilder<>(
-                            db.message().pagedUnified(
-                                    args.type,
-                                    args.threading,
-                                    args.group_category,
-                                    args.sort, args.ascending,
-                                    args.filter_seen,
-                                    args.filter_unflagged,
-                                    args.filter_unknown,
-                                    args.filter_snoozed,
-                                    args.filter_deleted,
-                                    args.filter_language,
-                                    false,
-                                    args.debug),
-                            configUnified);
+                    if (args.type == null && args.threading &&
+                            !args.filter_unknown && args.filter_language == null && !args.debug)
+                        builder = new LivePagedListBuilder<>(
+                                db.message().pagedUnifiedSummary(
+                                        args.group_category,
+                                        args.sort, args.ascending,
+                                        args.filter_seen,
+                                        args.filter_unflagged,
+                                        args.filter_snoozed,
+                                        args.filter_deleted),
+                                configUnified);
+                    else
+                        builder = new LivePagedListBuilder<>(
+                                db.message().pagedUnified(
+                                        args.type,
+                                        args.threading,
+                                        args.group_category,
+                                        args.sort, args.ascending,
+                                        args.filter_seen,
+                                        args.filter_unflagged,
+                                        args.filter_unknown,
+                                        args.filter_snoozed,
+                                        args.filter_deleted,
+                                        args.filter_language,
+                                        false,
+                                        args.debug),
+                                configUnified);
                     break;
 
                 case FOLDER:
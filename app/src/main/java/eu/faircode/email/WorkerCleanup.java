@@ -38,6 +38,8 @@ import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.sun.mail.iap.SpooledByteArray;
+
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -325,6 +327,17 @@ public class WorkerCleanup extends Worker {
                             Log.w("Error deleting " + file);
                     }
 
+            // Cleanup spooled IMAP literals left behind by unread responses
+            File[] spool = EmailService.getSpoolDir(context).listFiles();
+            if (spool != null)
+                for (File file : spool)
+                    if (file.lastModified() + KEEP_FILES_DURATION < now &&
+                            !SpooledByteArray.isInUse(file)) {
+                        Log.i("Deleting " + file);
+                        if (!file.delete())
+                            Log.w("Error deleting " + file);
+                    }
+
             // Cleanup contact info
             if (manual)
                 ContactInfo.clearCache(context);
@@ -334,21 +347,57 @@ public class WorkerCleanup extends Worker {
             Log.i("Cleanup FTS=" + fts);
             if (fts) {
                 int deleted = 0;
-                SQLiteDatabase sdb = Fts4DbHelper.getInstance(context);
-                try (Cursor cursor = Fts4DbHelper.getIds(sdb)) {
+                boolean fts5 = Fts5DbHelper.isEnabled(context);
+                SQLiteDatabase sdb = (fts5
+                        ? Fts5DbHelper.getInstance(context)
+                        : Fts4DbHelper.getInstance(context));
+                try (Cursor cursor = (fts5 ? Fts5DbHelper.getIds(sdb) : Fts4DbHelper.getIds(sdb))) {
                     while (cursor.moveToNext()) {
                         long rowid = cursor.getLong(0);
                         EntityMessage message = db.message().getMessage(rowid);
                         if (message == null || !message.fts) {
                             Log.i("Deleting FTS rowid=" + rowid);
-                            Fts4DbHelper.delete(sdb, rowid);
+                            if (fts5)
+                                Fts5DbHelper.delete(sdb, rowid);
+                            else
+                                Fts4DbHelper.delete(sdb, rowid);
                             deleted++;
                         }
                     }
                 }
-                Log.i("Cleanup FTS=" + deleted);
+                Log.i("Cleanup FTS=" + deleted + " fts5=" + fts5);
                 if (manual)
-                    Fts4DbHelper.optimize(sdb);
+                    if (fts5)
+                        Fts5DbHelper.optimize(sdb);
+                    else
+                        Fts4DbHelper.optimize(sdb);
+            }
+
+            Log.i("Check folder counters");
+            try {
+                db.beginTransaction();
+                int orphans = db.folder().deleteOrphanCounters();
+                List<Long> invalid = db.folder().checkCounters();
+                if (invalid.size() > 0)
+                    db.folder().rebuildCounters();
+                db.setTransactionSuccessful();
+                if (orphans > 0 || invalid.size() > 0)
+                    EntityLog.log(context, "Rebuilt folder counters" +
+                            " orphans=" + orphans +
+                            " invalid=" + TextUtils.join(",", invalid));
+            } finally {
+                db.endTransaction();
+            }
+
+            if (manual) {
+                Log.i("Rebuild thread summaries");
+                try {
+                    db.beginTransaction();
+                    EntityThreadSummary.rebuild(db.getOpenHelper().getWritableDatabase());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             }
 
             Log.i("Cleanup contacts");
@@ -26,6 +26,7 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
@@ -36,13 +37,31 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class WorkerFts extends Worker {
     private static final int INDEX_DELAY = 30; // seconds
     private static final int INDEX_BATCH_SIZE = 100;
+    private static final int INDEX_BATCH_MAX = 500; // Below the SQLite bound variable limit
+
+    // Text extraction runs ahead of the single writer, bounded to keep memory flat
+    private static final int EXTRACT_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int EXTRACT_PENDING = EXTRACT_THREADS * 4;
+
+    private static final ExecutorService executor = Helper.getBackgroundExecutor(EXTRACT_THREADS, "fts");
+
+    // Statistics
+    private static long statIndexed = 0;
+    private static long statBatches = 0;
+    private static long statElapsed = 0;
 
     public WorkerFts(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
@@ -60,82 +79,212 @@ public class WorkerFts extends Worker {
 
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
             boolean checkpoints = prefs.getBoolean("sqlite_checkpoints", true);
+            int batch = Math.max(1, Math.min(INDEX_BATCH_MAX, prefs.getInt("fts_batch_size", INDEX_BATCH_SIZE)));
 
-            int indexed = 0;
-            List<Long> ids = new ArrayList<>(INDEX_BATCH_SIZE);
+            List<Long> ids = new ArrayList<>(batch);
             DB db = DB.getInstance(context);
 
-            SQLiteDatabase sdb = Fts4DbHelper.getInstance(context);
+            boolean fts5 = Fts5DbHelper.isEnabled(context);
+            SQLiteDatabase sdb = (fts5
+                    ? Fts5DbHelper.getInstance(context)
+                    : Fts4DbHelper.getInstance(context));
+            Indexer indexer = new Indexer(context, db, sdb, fts5, batch);
 
             try (Cursor cursor = db.message().getMessageFts()) {
-                while (cursor != null && cursor.moveToNext())
-                    try {
-                        long id = cursor.getLong(0);
-                        Log.i("FTS index=" + id);
+                boolean ok = true;
+                while (ok && cursor != null && cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                    if (ids.size() < batch)
+                        continue;
+
+                    ok = indexer.submit(ids);
+                    ids.clear();
+
+                    boolean fts = prefs.getBoolean("fts", false);
+                    if (!fts)
+                        break;
+                }
+
+                if (ok && ids.size() > 0)
+                    ok = indexer.submit(ids);
+                if (ok)
+                    indexer.flush();
+            } finally {
+                indexer.cancel();
+            }
 
-                        ids.add(id);
+            if (checkpoints) {
+                DB.checkpoint(context);
+                Helper.sync();
+            }
 
-                        EntityMessage message = db.message().getMessage(id);
-                        if (message == null) {
-                            Log.i("FTS gone");
-                            continue;
-                        }
+            Log.i("FTS indexed=" + indexer.indexed);
+            return Result.success();
+        } catch (Throwable ex) {
+            Log.e(ex);
+            return Result.failure();
+        }
+    }
+
+    private static void markIndexed(DB db, List<Long> ids) {
+        try {
+            db.beginTransaction();
+            // Deleted messages can accumulate beyond the batch size
+            for (List<Long> chunk : Helper.chunkList(ids, INDEX_BATCH_MAX))
+                db.message().setMessageFts(chunk, true);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        ids.clear();
+    }
 
-                        String text = null;
-                        if (message.content) {
+    private static class Indexer {
+        private final Context context;
+        private final DB db;
+        private final SQLiteDatabase sdb;
+        private final boolean fts5;
+        private final int batch;
+
+        private int indexed = 0;
+        private final Deque<Extraction> pending = new ArrayDeque<>();
+        private final List<EntityMessage> messages = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final List<Long> ids = new ArrayList<>();
+
+        Indexer(Context context, DB db, SQLiteDatabase sdb, boolean fts5, int batch) {
+            this.context = context;
+            this.db = db;
+            this.sdb = sdb;
+            this.fts5 = fts5;
+            this.batch = batch;
+        }
+
+        boolean submit(List<Long> batchIds) {
+            // Load message rows in bulk
+            List<EntityMessage> rows = db.message().getMessages(batchIds);
+            if (rows == null)
+                rows = new ArrayList<>();
+
+            // Deleted messages will be marked with the next commit
+            List<Long> gone = new ArrayList<>(batchIds);
+            for (EntityMessage row : rows)
+                gone.remove(row.id);
+            if (gone.size() > 0)
+                Log.i("FTS gone=" + gone.size());
+            ids.addAll(gone);
+
+            for (final EntityMessage message : rows) {
+                // Back-pressure
+                while (pending.size() >= EXTRACT_PENDING)
+                    if (!drain())
+                        return false;
+
+                Future<String> future = null;
+                if (message.content)
+                    future = executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
                             File file = message.getFile(context);
-                            text = HtmlHelper.getFullText(file);
+                            return HtmlHelper.getFullText(file);
                         }
+                    });
+                pending.add(new Extraction(message, future));
+            }
 
-                        try {
-                            sdb.beginTransaction();
-                            Fts4DbHelper.insert(sdb, message, text);
-                            sdb.setTransactionSuccessful();
-                        } catch (SQLiteException ex) {
-                            Log.w(ex);
-                            break;
-                        } finally {
-                            sdb.endTransaction();
-                        }
+            return true;
+        }
+
+        boolean flush() {
+            while (pending.size() > 0)
+                if (!drain())
+                    return false;
+            return (messages.size() == 0 && ids.size() == 0 || commit());
+        }
+
+        void cancel() {
+            for (Extraction extraction : pending)
+                if (extraction.future != null)
+                    extraction.future.cancel(false);
+            pending.clear();
+        }
+
+        private boolean drain() {
+            Extraction extraction = pending.poll();
 
-                        indexed++;
+            String text = null;
+            if (extraction.future != null)
+                try {
+                    text = extraction.future.get();
+                } catch (Throwable ex) {
+                    Log.w(ex);
+                }
 
-                        if (ids.size() >= INDEX_BATCH_SIZE)
-                            markIndexed(db, ids);
+            messages.add(extraction.message);
+            texts.add(text);
+            ids.add(extraction.message.id);
 
-                        boolean fts = prefs.getBoolean("fts", false);
-                        if (!fts)
-                            break;
+            return (messages.size() < batch || commit());
+        }
+
+        private boolean commit() {
+            long start = SystemClock.elapsedRealtime();
+
+            // One transaction per batch
+            try {
+                sdb.beginTransaction();
+                for (int i = 0; i < messages.size(); i++)
+                    try {
+                        if (fts5)
+                            Fts5DbHelper.insert(sdb, messages.get(i), texts.get(i));
+                        else
+                            Fts4DbHelper.insert(sdb, messages.get(i), texts.get(i));
+                    } catch (SQLiteException ex) {
+                        throw ex;
                     } catch (Throwable ex) {
+                        // Skip the message, like when indexing one by one
                         Log.e(ex);
                     }
+                sdb.setTransactionSuccessful();
+            } catch (SQLiteException ex) {
+                Log.w(ex);
+                return false;
+            } finally {
+                sdb.endTransaction();
             }
 
             markIndexed(db, ids);
 
-            if (checkpoints) {
-                DB.checkpoint(context);
-                Helper.sync();
+            int count = messages.size();
+            indexed += count;
+            messages.clear();
+            texts.clear();
+
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            synchronized (WorkerFts.class) {
+                statIndexed += count;
+                statBatches++;
+                statElapsed += elapsed;
             }
+            Log.i("FTS indexed batch=" + count + " pending=" + pending.size() + " elapsed=" + elapsed + " ms");
 
-            Log.i("FTS indexed=" + indexed);
-            return Result.success();
-        } catch (Throwable ex) {
-            Log.e(ex);
-            return Result.failure();
+            return true;
         }
     }
 
-    private void markIndexed(DB db, List<Long> ids) {
-        try {
-            db.beginTransaction();
-            for (Long id : ids)
-                db.message().setMessageFts(id, true);
-            db.setTransactionSuccessful();
-        } finally {
-            db.endTransaction();
+    private static class Extraction {
+        private final EntityMessage message;
+        private final Future<String> future;
+
+        Extraction(EntityMessage message, Future<String> future) {
+            this.message = message;
+            this.future = future;
         }
-        ids.clear();
+    }
+
+    static synchronized long[] getStats() {
+        long rate = (statElapsed == 0 ? 0 : statIndexed * 1000 / statElapsed);
+        return new long[]{statIndexed, statBatches, statElapsed, rate};
     }
 
     static void init(Context context, boolean immediately) {